@@ -0,0 +1,175 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Limits the number of requests in flight to one handle server, adapting the limit to the server (additive increase, multiplicative decrease):
+ * while answers come back fast, the limit grows by one per round of requests; when the server answers with an error, times out or gets
+ * noticeably slower, the limit is reduced.
+ *
+ * "Fast" is measured against the configured latency target or, if there is none, against the lowest latency seen recently for the same kind of
+ * request: resolutions are answered much faster than administrative requests, which have to be authenticated and written, so they are not
+ * measured against each other. One limiter is shared by all clients talking to the same handle prefix.
+ */
+@Log4j2
+public class AdaptiveRequestLimiter {
+
+    private static final Map<String, AdaptiveRequestLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    // answers slower than this multiple of the target count as a sign of overload
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_ON_ERROR = 0.5;
+    private static final double BACKOFF_ON_LATENCY = 0.9;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFree = lock.newCondition();
+
+    private volatile int minLimit;
+    private volatile int maxLimit;
+    private volatile long latencyTarget;
+    private double limit;
+    private int inFlight;
+    private double resolutionBaseline = -1;
+    private double adminBaseline = -1;
+    private long lastDecrease;
+
+    /**
+     * Get the limiter for a handle prefix. The bounds of the client created last apply.
+     *
+     * @param minLimit the limit never drops below this number of requests
+     * @param maxLimit the limit never grows above this number of requests
+     * @param latencyTarget latency in ms up to which the server counts as healthy, 0 to derive it from the fastest answers
+     */
+    public static AdaptiveRequestLimiter forServer(String server, int minLimit, int maxLimit, long latencyTarget) {
+        AdaptiveRequestLimiter limiter = LIMITERS.computeIfAbsent(server, s -> new AdaptiveRequestLimiter());
+        limiter.configure(minLimit, maxLimit, latencyTarget);
+        return limiter;
+    }
+
+    /**
+     * All limiters by handle prefix, e.g. for monitoring.
+     */
+    public static Map<String, AdaptiveRequestLimiter> getLimiters() {
+        return Collections.unmodifiableMap(LIMITERS);
+    }
+
+    private AdaptiveRequestLimiter() {
+        limit = -1;
+        lastDecrease = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+    }
+
+    private void configure(int minLimit, int maxLimit, long latencyTarget) {
+        lock.lock();
+        try {
+            this.minLimit = Math.max(1, minLimit);
+            this.maxLimit = Math.max(this.minLimit, maxLimit);
+            this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+            if (limit < 0) {
+                limit = Math.min(this.maxLimit, Math.max(this.minLimit, 8));
+            }
+            limit = Math.min(this.maxLimit, Math.max(this.minLimit, limit));
+            slotFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a request may be sent.
+     */
+    public void acquire() throws HandleException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                slotFree.await();
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted while waiting to send a request to the handle server");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Report a finished request and adapt the limit.
+     *
+     * @param latency time the request took in ns
+     * @param failed true if the request failed, timed out or the server reported that it is overloaded
+     * @param resolution true for a resolution, false for an administrative request
+     */
+    public void release(long latency, boolean failed, boolean resolution) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (failed) {
+                decrease(BACKOFF_ON_ERROR, latency);
+            } else {
+                double baseline = resolution ? resolutionBaseline : adminBaseline;
+                if (baseline < 0 || latency < baseline) {
+                    baseline = latency;
+                } else {
+                    // let the baseline follow slowly, so that it does not stick to a single lucky answer
+                    baseline += (latency - baseline) * 0.01;
+                }
+                if (resolution) {
+                    resolutionBaseline = baseline;
+                } else {
+                    adminBaseline = baseline;
+                }
+                double target = latencyTarget > 0 ? latencyTarget : baseline * LATENCY_TOLERANCE;
+                if (latency <= target) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                } else {
+                    decrease(BACKOFF_ON_LATENCY, latency);
+                }
+            }
+            slotFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reduce the limit, at most once per round trip: the other requests of the same round see the same congestion and must not reduce it again.
+     */
+    private void decrease(double factor, long latency) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < latency) {
+            return;
+        }
+        lastDecrease = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * factor);
+        if ((int) previous != (int) limit) {
+            log.debug("Handle server limit reduced to " + (int) limit + " requests");
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
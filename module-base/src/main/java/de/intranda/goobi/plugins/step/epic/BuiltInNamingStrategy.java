@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.intranda.goobi.plugins.step.epic.HandleNamingStrategy.Element;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * The naming strategies shipped with the plugin.
+ */
+@Log4j2
+public enum BuiltInNamingStrategy implements HandleNamingStrategy {
+
+    /**
+     * The stem itself if it is free, otherwise the first free numbered suffix, found by asking the server. The handles depend on the order in
+     * which the elements are registered.
+     */
+    PROBE {
+        @Override
+        public String getSuffix(Element element) {
+            return null;
+        }
+    },
+
+    /**
+     * The stem itself for the logical top element, "0" for the physical top element and the physical order for pages, e.g. "stem-12" for the
+     * 12th page.
+     */
+    ORDER {
+        @Override
+        public String getSuffix(Element element) {
+            if (Element.LOGICAL_ROOT.equals(element.getPath())) {
+                return "";
+            }
+            if (Element.PHYSICAL_ROOT.equals(element.getPath())) {
+                return "0";
+            }
+            return element.getOrder() == null ? null : String.valueOf(element.getOrder());
+        }
+    },
+
+    /**
+     * The ID of the element in the METS file, e.g. "stem-PHYS_0012".
+     */
+    METSID {
+        @Override
+        public String getSuffix(Element element) {
+            return element.getMetsId();
+        }
+    },
+
+    /**
+     * A hash of the METS ID or, for elements that were not saved yet, of the position in the structure tree. The handles do not reveal the
+     * structure, e.g. "stem-3f9a0c71d2e4".
+     */
+    HASH {
+        @Override
+        public String getSuffix(Element element) {
+            String key = element.getMetsId() != null ? element.getMetsId() : element.getPath();
+            if (key == null) {
+                return null;
+            }
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+                StringBuilder suffix = new StringBuilder();
+                for (int i = 0; i < HASH_BYTES; i++) {
+                    suffix.append(String.format("%02x", digest[i]));
+                }
+                return suffix.toString();
+            } catch (NoSuchAlgorithmException e) {
+                // every Java runtime supports SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    // 48 bits keep collisions unlikely for objects with a few hundred thousand elements
+    private static final int HASH_BYTES = 6;
+
+    /**
+     * The built-in strategy with the given name, or an instance of the class with the given name. "probe" if the name is empty or unknown.
+     */
+    public static HandleNamingStrategy getByName(String name) {
+        if (name == null || name.isBlank()) {
+            return PROBE;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            // not a built-in strategy, try a class name
+        }
+        try {
+            return Class.forName(name.trim()).asSubclass(HandleNamingStrategy.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Unknown handle naming strategy '" + name + "', searching free suffixes at the server", e);
+            return PROBE;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package de.intranda.goobi.plugins.step.epic;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 
@@ -23,10 +24,16 @@ import java.util.ArrayList;
  *
  */
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang.StringUtils;
 import org.goobi.beans.Process;
 import org.goobi.beans.Step;
 import org.goobi.production.enums.LogType;
@@ -36,11 +43,11 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
 
+import de.intranda.goobi.plugins.step.epic.HandleNamingStrategy.Element;
+import de.intranda.goobi.plugins.step.epic.RegistrationSummary.Phase;
 import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -60,8 +67,17 @@ import ugh.exceptions.UGHException;
 public class EpicPidStepPlugin implements IStepPluginVersion2 {
 
     private static final long serialVersionUID = 6771665909911957400L;
+    private static final String PLUGIN_TITLE = "intranda_step_epic_pid";
+    // file next to the METS file, in which the handles of an unfinished run are kept
+    private static final String JOURNAL_FILE = "handles.journal";
+
+    static {
+        // prepare the handle clients as soon as the plugin is loaded
+        HandleClientRegistry.warmUp(PLUGIN_TITLE);
+    }
+
     @Getter
-    private String title = "intranda_step_epic_pid";
+    private String title = PLUGIN_TITLE;
     @Getter
     private Step step;
     private String returnPath;
@@ -71,6 +87,11 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
     @Getter
     @Setter
     private MetadataType handleMetadataType;
+    // counts of the last run
+    @Getter
+    private RegistrationSummary summary;
+    // handles minted by the current run, null if no journal is kept
+    private HandleJournal journal;
 
     @Override
     public void initialize(Step step, String returnPath) {
@@ -123,40 +144,179 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
      * 
      * @return Returns the handle.
      */
-    public String addHandle(DocStruct docstruct, String id, HandleClient handler, boolean includeChildren)
+    public String addHandle(DocStruct docstruct, String id, PidBackend handler, boolean includeChildren)
+            throws HandleException, IOException, MetadataTypeNotAllowedException {
+        return addHandle(docstruct, id, handler, includeChildren, new RegistrationSummary());
+    }
+
+    String addHandle(DocStruct docstruct, String id, PidBackend handler, boolean includeChildren, RegistrationSummary summary)
             throws HandleException, IOException, MetadataTypeNotAllowedException {
+        return addHandle(docstruct, null, id, handler, includeChildren, summary);
+    }
+
+    /**
+     * @param path position of the docstruct in the tree, under which its handle is journaled, or null to not journal it
+     */
+    private String addHandle(DocStruct docstruct, String path, String id, PidBackend handler, boolean includeChildren,
+            RegistrationSummary summary) throws HandleException, IOException, MetadataTypeNotAllowedException {
 
         //        HandleClient handler = new HandleClient(config);
         //already has a handle?
-        String handle = getHandle(docstruct);
+        String handle = registerHandle(getHandle(docstruct), describe(docstruct, path), id, getHandlePostfix(), handler, docstruct, summary);
 
-        String name = config.getString("name");
-        String prefix = config.getString("prefix");
-        String separator = config.getString("separator", "-");
-        String strPostfix = "";
-        if (prefix != null && !prefix.isEmpty()) {
-            strPostfix = prefix + separator;
-        }
-        if (name != null && !name.isEmpty()) {
-            strPostfix += name + separator;
+        setHandle(docstruct, handle);
+
+        if (includeChildren && docstruct.getAllChildren() != null) {
+            // run recursive through all children
+            List<DocStruct> children = docstruct.getAllChildren();
+            for (int i = 0; i < children.size(); i++) {
+                addHandle(children.get(i), getChildPath(path, i), id, handler, includeChildren, summary);
+            }
         }
 
-        if (handle == null) {
-            handle = handler.makeURLHandleForObject(id, strPostfix, docstruct);
+        return handle;
+    }
+
+    /**
+     * Update the handle of an element that has one, otherwise mint a new handle and journal it. If an earlier run already minted a handle for the
+     * element but failed before saving it, that handle is used without asking the server again.
+     */
+    private String registerHandle(String existingHandle, Element element, String id, String strPostfix,
+            PidBackend handler, DocStruct docstruct, RegistrationSummary summary) throws HandleException, IOException {
+        String path = element.getPath();
+        if (existingHandle != null) {
+            summary.addUpdate(handler.updateURLHandleForObject(existingHandle, strPostfix, docstruct));
+            return existingHandle;
+        }
+        HandleJournal currentJournal = path == null ? null : journal;
+        if (currentJournal != null) {
+            String journaledHandle = currentJournal.getHandle(path);
+            if (journaledHandle != null) {
+                summary.addRecovered();
+                return journaledHandle;
+            }
+        }
+        String namedHandle = handler.getNamedHandle(id, strPostfix, element);
+        String handle;
+        if (namedHandle != null && currentJournal != null) {
+            // the journal reserves the name before the handle is created, so that the next run knows the handle is its own if this one stops
+            handle = currentJournal.createNamed(path, namedHandle, reservedHandle -> handler.makeURLHandleForObject(id, strPostfix, docstruct,
+                    new Element(path, element.getMetsId(), element.getOrder(), element.getType(), reservedHandle)));
         } else {
-            handler.updateURLHandleForObject(handle, strPostfix, docstruct);
+            handle = handler.makeURLHandleForObject(id, strPostfix, docstruct, element);
+            if (currentJournal != null) {
+                currentJournal.record(path, handle);
+            }
         }
+        summary.addCreated();
+        return handle;
+    }
 
-        setHandle(docstruct, handle);
+    /**
+     * What the naming strategy may use of the docstruct. Must be called from the thread owning the docstruct.
+     */
+    private Element describe(DocStruct docstruct, String path) {
+        Integer order = null;
+        if (docstruct.getAllMetadata() != null) {
+            for (Metadata metadata : docstruct.getAllMetadata()) {
+                if ("physPageNumber".equals(metadata.getType().getName()) && StringUtils.isNotBlank(metadata.getValue())
+                        && StringUtils.isNumeric(metadata.getValue())) {
+                    order = Integer.valueOf(metadata.getValue());
+                }
+            }
+        }
+        return new Element(path, docstruct.getIdentifier(), order, docstruct.getType().getName());
+    }
+
+    private static String getChildPath(String path, int index) {
+        return path == null ? null : path + "/" + index;
+    }
+
+    /**
+     * Register handles for all given docstructs, using up to maxParallelRequests requests at the same time. The network requests are only queued
+     * here, the handles are written into the docstructs afterwards by writeHandles().
+     * 
+     * @return the pending handles, in the same order as the docstructs
+     */
+    List<Future<String>> submitHandles(List<DocStruct> docstructs, String id, PidBackend handler, HandleTaskExecutor executor,
+            RegistrationSummary summary) {
+        return submitHandles(docstructs, null, id, handler, executor, summary);
+    }
+
+    /**
+     * @param paths positions of the docstructs in the tree, under which their handles are journaled, or null to not journal them
+     */
+    private List<Future<String>> submitHandles(List<DocStruct> docstructs, List<String> paths, String id, PidBackend handler,
+            HandleTaskExecutor executor, RegistrationSummary summary) {
+        String strPostfix = getHandlePostfix();
+        List<Future<String>> futures = new ArrayList<>(docstructs.size());
+        for (int i = 0; i < docstructs.size(); i++) {
+            DocStruct docstruct = docstructs.get(i);
+            String path = paths == null ? null : paths.get(i);
+            // read the docstruct here, it must not be accessed from the worker threads
+            String existingHandle = getHandle(docstruct);
+            Element element = describe(docstruct, path);
+            futures.add(executor.submit(() -> registerHandle(existingHandle, element, id, strPostfix, handler, docstruct, summary)));
+        }
+        return futures;
+    }
+
+    /**
+     * Save the registered handles in the docstructs, in the order of the list.
+     * 
+     * @return the handle of the first docstruct
+     */
+    String writeHandles(List<DocStruct> docstructs, List<String> handles) throws MetadataTypeNotAllowedException, HandleException {
+        for (int i = 0; i < docstructs.size(); i++) {
+            setHandle(docstructs.get(i), handles.get(i));
+        }
+        return handles.get(0);
+    }
 
+    /**
+     * Collect the docstruct and, if requested, all of its descendants in document order.
+     */
+    List<DocStruct> collectDocStructs(DocStruct docstruct, boolean includeChildren) {
+        List<DocStruct> docstructs = new ArrayList<>();
+        docstructs.add(docstruct);
         if (includeChildren && docstruct.getAllChildren() != null) {
-            // run recursive through all children
             for (DocStruct ds : docstruct.getAllChildren()) {
-                addHandle(ds, id, handler, includeChildren);
+                docstructs.addAll(collectDocStructs(ds, includeChildren));
             }
         }
+        return docstructs;
+    }
 
-        return handle;
+    /**
+     * The tree paths of the docstructs returned by collectDocStructs(), in the same order.
+     */
+    private List<String> collectPaths(String path, DocStruct docstruct, boolean includeChildren) {
+        List<String> paths = new ArrayList<>();
+        paths.add(path);
+        if (includeChildren && docstruct.getAllChildren() != null) {
+            List<DocStruct> children = docstruct.getAllChildren();
+            for (int i = 0; i < children.size(); i++) {
+                paths.addAll(collectPaths(getChildPath(path, i), children.get(i), includeChildren));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The part of the handle between base and object ID, e.g. "go-goobi-".
+     */
+    private String getHandlePostfix() {
+        String name = config.getString("name");
+        String prefix = config.getString("prefix");
+        String separator = config.getString("separator", "-");
+        String strPostfix = "";
+        if (prefix != null && !prefix.isEmpty()) {
+            strPostfix = prefix + separator;
+        }
+        if (name != null && !name.isEmpty()) {
+            strPostfix += name + separator;
+        }
+        return strPostfix;
     }
 
     /**
@@ -219,66 +379,118 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
     @Override
     public PluginReturnValue run() {
         boolean successfull = true;
-        String tempFolder = null;
+        PidBackend handler = null;
+        String identifier = null;
+        summary = new RegistrationSummary();
+        HandleMetrics metrics = HandleMetrics.forProject(getProjectTitle());
+        HandleMetrics.Scope metricsScope = metrics.activate(summary);
+        Lock processLock = HandleLocks.lockProcess(getStep().getProcessId());
         try {
-            synchronized (this) {
-
-                //read the metatdata
-                Process process = step.getProzess();
-                Prefs prefs = process.getRegelsatz().getPreferences();
-                String handleMetadata = config.getString("handleMetadata", "_urn");
-                handleMetadataType = prefs.getMetadataTypeByName(handleMetadata);
-                Fileformat fileformat = process.readMetadataFile();
+            //read the metatdata
+            long phaseStart = System.nanoTime();
+            Process process = step.getProzess();
+            Prefs prefs = process.getRegelsatz().getPreferences();
+            String handleMetadata = config.getString("handleMetadata", "_urn");
+            handleMetadataType = prefs.getMetadataTypeByName(handleMetadata);
+
+            // large objects can be handled without loading the UGH model, except for removing handles
+            StreamingMetsHandles streamingMets = null;
+            if (config.getBoolean("streamingMets", false)) {
+                streamingMets = StreamingMetsHandles.read(Paths.get(process.getMetadataFilePath()), prefs, handleMetadata);
+                identifier = streamingMets.getIdentifier();
+                if (config.getString("removeHandles", "").equals(identifier)) {
+                    streamingMets = null;
+                }
+            }
 
+            Fileformat fileformat = null;
+            DocStruct logical = null;
+            DocStruct physical = null;
+            if (streamingMets == null) {
+                fileformat = process.readMetadataFile();
                 DigitalDocument digitalDocument = fileformat.getDigitalDocument();
-                DocStruct logical = digitalDocument.getLogicalDocStruct();
-                DocStruct physical = digitalDocument.getPhysicalDocStruct();
+                logical = digitalDocument.getLogicalDocStruct();
+                physical = digitalDocument.getPhysicalDocStruct();
                 // if it is an anchor record use the first child
                 if (logical.getType().isAnchor()) {
                     logical = logical.getAllChildren().get(0);
                 }
-                String identifier = getId(logical);
+                identifier = getId(logical);
+            }
+            summary.setPhaseTime(Phase.READ, System.nanoTime() - phaseStart);
 
-                //add handles to each physical and logical element
-                HandleClient handler = new HandleClient(config);
-                tempFolder = handler.tempFolder;
+            //add handles to each physical and logical element
+            phaseStart = System.nanoTime();
+            handler = HandleClientRegistry.getBackend(config);
 
+            Lock identifierLock = HandleLocks.lockIdentifier(identifier);
+            try {
                 //remove handles?
-                if (config.getString("removeHandles", "").contentEquals(identifier)) {
-                    removeHandlesFromProcess(fileformat, handler, process);
+                if (streamingMets == null && config.getString("removeHandles", "").contentEquals(identifier)) {
+                    removeHandlesFromProcess(fileformat, handler);
                 } else {
                     //otherwise add handles:
                     boolean handleForLogicalDocument = config.getBoolean("handleForLogicalDocument", true);
                     boolean handleForPhysicalDocument = config.getBoolean("handleForPhysicalDocument", true);
 
                     boolean handleForPhysicalChildren = config.getBoolean("handleForPhysicalPages", true);
+                    int maxParallelRequests = config.getInt("maxParallelRequests", 1);
 
-                    if (handleForLogicalDocument) {
-                        try {
-                            String myhandle = addHandle(logical, identifier, handler, false);
-                            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
-                        } catch (HandleException e) {
-                            log.error(e.getMessage(), e);
-                        }
+                    if (config.getBoolean("handleJournal", true)) {
+                        Path metsFile = Paths.get(process.getMetadataFilePath());
+                        journal = HandleJournal.open(metsFile.resolveSibling(JOURNAL_FILE), metsFile);
                     }
 
-                    if (handleForPhysicalDocument) {
-                        try {
-                            String myhandle = addHandle(physical, identifier, handler, handleForPhysicalChildren);
-                            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
-                        } catch (HandleException e) {
-                            log.error(e.getMessage(), e);
-                            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR,
-                                    "Error registering Handles: " + e.getMessage());
-                            successfull = false;
+                    if (streamingMets != null) {
+                        successfull = addHandlesStreaming(streamingMets, identifier, handler, handleForLogicalDocument, handleForPhysicalDocument,
+                                handleForPhysicalChildren, maxParallelRequests, summary);
+                    } else if (maxParallelRequests > 1) {
+                        successfull = addHandlesInParallel(logical, physical, identifier, handler, handleForLogicalDocument,
+                                handleForPhysicalDocument, handleForPhysicalChildren, maxParallelRequests, summary);
+                    } else {
+                        if (handleForLogicalDocument) {
+                            try {
+                                String myhandle = addHandle(logical, Element.LOGICAL_ROOT, identifier, handler, false, summary);
+                                Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                            } catch (HandleException e) {
+                                log.error(e.getMessage(), e);
+                            }
+                        }
+
+                        if (handleForPhysicalDocument) {
+                            try {
+                                String myhandle = addHandle(physical, Element.PHYSICAL_ROOT, identifier, handler, handleForPhysicalChildren, summary);
+                                Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                            } catch (HandleException e) {
+                                log.error(e.getMessage(), e);
+                                Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR,
+                                        "Error registering Handles: " + e.getMessage());
+                                successfull = false;
+                            }
                         }
                     }
+                    metrics.addSummary(summary);
                 }
-
-                //and save the metadata again.
-                if (successfull) {
+            } finally {
+                identifierLock.unlock();
+            }
+            summary.setPhaseTime(Phase.REGISTER, System.nanoTime() - phaseStart);
+
+            //and save the metadata again.
+            if (successfull) {
+                phaseStart = System.nanoTime();
+                // handles written to a batch file must be on disk before they are saved in the METS file
+                handler.flush();
+                if (streamingMets != null) {
+                    streamingMets.write(ConfigurationHelper.getInstance().getNumberOfMetaBackups());
+                } else {
                     process.writeMetadataFile(fileformat);
                 }
+                if (journal != null) {
+                    // the handles are saved in the METS file now, a later run must not take them from the journal
+                    journal.delete();
+                }
+                summary.setPhaseTime(Phase.WRITE, System.nanoTime() - phaseStart);
             }
 
         } catch (Exception e) {
@@ -286,11 +498,22 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
             Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR, "Error writing Handles: " + e.getMessage());
             successfull = false;
         } finally {
-            if (tempFolder != null) {
-                StorageProvider.getInstance().deleteDataInDir(Paths.get(tempFolder));
+            closeJournal();
+            processLock.unlock();
+            if (handler != null) {
+                handler.runFinished();
+                HandleClientRegistry.release(handler);
             }
+            ResolutionCache.getInstance().logStatistics();
+            metricsScope.close();
         }
 
+        if (identifier != null) {
+            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handles " + summary.getReport());
+            if (config.getBoolean("logStatisticsAsJson", false)) {
+                log.info(summary.toJson(getStep().getProcessId(), identifier));
+            }
+        }
         log.info("Epic Pid step plugin executed");
         if (!successfull) {
             return PluginReturnValue.ERROR;
@@ -298,8 +521,150 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
         return PluginReturnValue.FINISH;
     }
 
-    private void removeHandlesFromProcess(Fileformat fileformat, HandleClient handler, Process process) throws UGHException, HandleException,
-            IOException, InterruptedException, SwapException, DAOException {
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * The title of the project of the process, under which the handle metrics of this run are counted.
+     */
+    private String getProjectTitle() {
+        Process process = step.getProzess();
+        if (process == null || process.getProjekt() == null) {
+            return null;
+        }
+        return process.getProjekt().getTitel();
+    }
+
+    /**
+     * Register the handles of the logical and the physical tree at the same time, with up to maxParallelRequests requests in flight.
+     * 
+     * @return false if the handles of the physical tree could not be registered
+     */
+    private boolean addHandlesInParallel(DocStruct logical, DocStruct physical, String identifier, PidBackend handler,
+            boolean handleForLogicalDocument, boolean handleForPhysicalDocument, boolean handleForPhysicalChildren, int maxParallelRequests,
+            RegistrationSummary summary) throws MetadataTypeNotAllowedException {
+        boolean successfull = true;
+        try (HandleTaskExecutor executor = new HandleTaskExecutor(maxParallelRequests, config.getBoolean("virtualThreads", false))) {
+            List<DocStruct> logicalDocStructs = handleForLogicalDocument ? collectDocStructs(logical, false) : Collections.emptyList();
+            List<DocStruct> physicalDocStructs =
+                    handleForPhysicalDocument ? collectDocStructs(physical, handleForPhysicalChildren) : Collections.emptyList();
+
+            List<String> logicalPaths = handleForLogicalDocument ? collectPaths(Element.LOGICAL_ROOT, logical, false) : Collections.emptyList();
+            List<String> physicalPaths =
+                    handleForPhysicalDocument ? collectPaths(Element.PHYSICAL_ROOT, physical, handleForPhysicalChildren) : Collections.emptyList();
+
+            // queue both trees before waiting for any of them, so that logical and physical handles are registered concurrently
+            List<Future<String>> logicalHandles = submitHandles(logicalDocStructs, logicalPaths, identifier, handler, executor, summary);
+            List<Future<String>> physicalHandles = submitHandles(physicalDocStructs, physicalPaths, identifier, handler, executor, summary);
+
+            if (!logicalDocStructs.isEmpty()) {
+                try {
+                    String myhandle = writeHandles(logicalDocStructs, executor.awaitAll(logicalHandles));
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                } catch (HandleException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+
+            if (!physicalDocStructs.isEmpty()) {
+                try {
+                    String myhandle = writeHandles(physicalDocStructs, executor.awaitAll(physicalHandles));
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                } catch (HandleException e) {
+                    log.error(e.getMessage(), e);
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR, "Error registering Handles: " + e.getMessage());
+                    successfull = false;
+                }
+            }
+        }
+        return successfull;
+    }
+
+    /**
+     * Register the handles of the elements read by StreamingMetsHandles, with up to maxParallelRequests requests in flight. The handles are set
+     * in the targets and written into the file afterwards.
+     * 
+     * @return false if the handles of the physical tree could not be registered
+     */
+    private boolean addHandlesStreaming(StreamingMetsHandles mets, String identifier, PidBackend handler, boolean handleForLogicalDocument,
+            boolean handleForPhysicalDocument, boolean handleForPhysicalChildren, int maxParallelRequests, RegistrationSummary summary) {
+        boolean successfull = true;
+        List<StreamingMetsHandles.Target> logicalTargets = new ArrayList<>();
+        List<String> logicalPaths = new ArrayList<>();
+        if (handleForLogicalDocument && mets.getLogicalTarget() != null) {
+            logicalTargets.add(mets.getLogicalTarget());
+            logicalPaths.add(Element.LOGICAL_ROOT);
+        }
+        List<StreamingMetsHandles.Target> physicalTargets = new ArrayList<>();
+        List<String> physicalPaths = new ArrayList<>();
+        if (handleForPhysicalDocument && mets.getPhysicalTarget() != null) {
+            physicalTargets.add(mets.getPhysicalTarget());
+            physicalPaths.add(Element.PHYSICAL_ROOT);
+            if (handleForPhysicalChildren) {
+                // the elements below the physical top element, named by their position in the tree as in the UGH model
+                for (StreamingMetsHandles.Target page : mets.getPages()) {
+                    physicalTargets.add(page);
+                    physicalPaths.add(page.getPath());
+                }
+            }
+        }
+
+        String strPostfix = getHandlePostfix();
+        try (HandleTaskExecutor executor = new HandleTaskExecutor(maxParallelRequests, config.getBoolean("virtualThreads", false))) {
+            List<Future<String>> logicalHandles = submitTargets(logicalTargets, logicalPaths, identifier, strPostfix, handler, executor, summary);
+            List<Future<String>> physicalHandles = submitTargets(physicalTargets, physicalPaths, identifier, strPostfix, handler, executor, summary);
+
+            if (!logicalTargets.isEmpty()) {
+                try {
+                    String myhandle = setTargetHandles(logicalTargets, executor.awaitAll(logicalHandles));
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                } catch (HandleException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+
+            if (!physicalTargets.isEmpty()) {
+                try {
+                    String myhandle = setTargetHandles(physicalTargets, executor.awaitAll(physicalHandles));
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.INFO, "Handle created: " + myhandle);
+                } catch (HandleException e) {
+                    log.error(e.getMessage(), e);
+                    Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR, "Error registering Handles: " + e.getMessage());
+                    successfull = false;
+                }
+            }
+        }
+        return successfull;
+    }
+
+    private List<Future<String>> submitTargets(List<StreamingMetsHandles.Target> targets, List<String> paths, String id, String strPostfix,
+            PidBackend handler, HandleTaskExecutor executor, RegistrationSummary summary) {
+        List<Future<String>> futures = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            StreamingMetsHandles.Target target = targets.get(i);
+            String existingHandle = target.getExistingHandle();
+            Element element = new Element(paths.get(i), target.getDivId(), target.getOrder(), target.getType());
+            futures.add(executor.submit(() -> registerHandle(existingHandle, element, id, strPostfix, handler, null, summary)));
+        }
+        return futures;
+    }
+
+    private String setTargetHandles(List<StreamingMetsHandles.Target> targets, List<String> handles) {
+        for (int i = 0; i < targets.size(); i++) {
+            targets.get(i).setHandle(handles.get(i));
+        }
+        return handles.get(0);
+    }
+
+    private void removeHandlesFromProcess(Fileformat fileformat, PidBackend handler) throws UGHException {
         DigitalDocument digitalDocument = fileformat.getDigitalDocument();
         DocStruct logical = digitalDocument.getLogicalDocStruct();
         DocStruct physical = digitalDocument.getPhysicalDocStruct();
@@ -307,45 +672,66 @@ public class EpicPidStepPlugin implements IStepPluginVersion2 {
         //find all the handles
         List<String> lstHandles = getHandles(logical);
         lstHandles.addAll(getHandles(physical));
-        boolean successful = true;
 
         //delete all the handles
-        for (String strHandle : lstHandles) {
-            try {
-                handler.remove(strHandle);
+        Set<String> removedHandles = removeHandles(lstHandles, handler);
 
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
-                successful = false;
-            }
+        //delete the metadata of all handles that are gone from the server
+        removeHandlesFromDoc(logical, removedHandles);
+        removeHandlesFromDoc(physical, removedHandles);
+
+        int failed = lstHandles.size() - removedHandles.size();
+        if (failed > 0) {
+            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR,
+                    "Error removing Handles: " + failed + " of " + lstHandles.size() + " Handles could not be removed");
         }
+    }
 
-        //delete all the metadata, but only if no errors:
-        if (successful) {
-            Metadata md = new Metadata(handleMetadataType);
-            removeHandlesFromDoc(logical, md);
-            removeHandlesFromDoc(physical, md);
+    /**
+     * Delete the handles at the server, with up to maxParallelRequests requests in flight. Handles that are not found at the server count as
+     * removed.
+     * 
+     * @return the handles that are no longer registered
+     */
+    private Set<String> removeHandles(List<String> lstHandles, PidBackend handler) {
+        Set<String> removedHandles = new HashSet<>();
+        int maxParallelRequests = config.getInt("maxParallelRequests", 1);
+        try (HandleTaskExecutor executor = new HandleTaskExecutor(maxParallelRequests, config.getBoolean("virtualThreads", false))) {
+            List<Future<Boolean>> futures = new ArrayList<>(lstHandles.size());
+            for (String strHandle : lstHandles) {
+                futures.add(executor.submit(() -> handler.remove(strHandle)));
+            }
+
+            // the result is null if the handle could not be removed, false if it was not found and true if it was deleted
+            List<Boolean> results = executor.awaitEach(futures);
+            for (int i = 0; i < lstHandles.size(); i++) {
+                if (results.get(i) != null) {
+                    removedHandles.add(lstHandles.get(i));
+                }
+            }
         }
+        return removedHandles;
     }
 
-    private void removeHandlesFromDoc(DocStruct docstruct, Metadata md) {
+    void removeHandlesFromDoc(DocStruct docstruct, Set<String> removedHandles) {
 
-        //If there already is a handle, remove it first.
-        if (!docstruct.getAllMetadataByType(md.getType()).isEmpty()) {
-            docstruct.removeMetadata(docstruct.getAllMetadataByType(md.getType()).get(0));
+        //If there is a removed handle, delete its metadata.
+        List<? extends Metadata> metadata = docstruct.getAllMetadataByType(handleMetadataType);
+        if (!metadata.isEmpty() && removedHandles.contains(metadata.get(0).getValue())) {
+            docstruct.removeMetadata(metadata.get(0));
         }
 
         //then for all children:
         if (docstruct.getAllChildren() != null) {
             // run recursive through all children
             for (DocStruct ds : docstruct.getAllChildren()) {
-                removeHandlesFromDoc(ds, md);
+                removeHandlesFromDoc(ds, removedHandles);
             }
         }
 
     }
 
-    private List<String> getHandles(DocStruct docstruct) {
+    List<String> getHandles(DocStruct docstruct) {
         List<String> lstHandles = new ArrayList<>();
         String strHandle = getHandle(docstruct);
         if (strHandle != null) {
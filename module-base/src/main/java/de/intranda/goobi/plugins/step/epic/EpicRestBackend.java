@@ -0,0 +1,367 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import de.intranda.goobi.plugins.step.epic.HandleMetrics.Operation;
+import de.intranda.goobi.plugins.step.epic.PidBackend.UpdateResult;
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+import ugh.dl.DocStruct;
+
+/**
+ * Registers handles with the ePIC REST API (version 2) instead of the native handle protocol: a handle "prefix/suffix" is the resource
+ * "epicApiUrl/prefix/suffix", created and changed with PUT, resolved with GET and removed with DELETE, each authenticated with HTTP basic
+ * authentication.
+ *
+ * All requests of a backend go through one HTTP client, which keeps its connections open. With HTTP/2 the concurrent requests of parallel
+ * registrations are multiplexed on a single connection, servers that only speak HTTP/1.1 get a pool of keep-alive connections. New handles are
+ * created with "If-None-Match: *", so a single request both checks that the handle is free and creates it. Resolutions read the answer as it
+ * arrives and stop as soon as the URL is found.
+ */
+@Log4j2
+public class EpicRestBackend implements PidBackend {
+
+    private static final int MAX_SUFFIX_PROBES = 5000;
+    private static final int MAX_SUFFIX_COUNTERS = 10000;
+
+    private final URI apiUrl;
+    private final String authorization;
+    private final String base;
+    private final String prefix;
+    private final String separator;
+    private final Duration requestTimeout;
+    private final boolean updateChangedHandlesOnly;
+    private final boolean skipExistingHandles;
+    private final HandleNamingStrategy namingStrategy;
+    private final AdaptiveRequestLimiter requestLimiter;
+    private final ResolutionCache resolutionCache = ResolutionCache.getInstance();
+    private final HttpClient httpClient;
+
+    private final Map<String, AtomicInteger> lastSuffixes = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicInteger> eldest) {
+            return size() > MAX_SUFFIX_COUNTERS;
+        }
+    };
+    private final ReentrantLock lastSuffixesLock = new ReentrantLock();
+
+    /**
+     * Constructor. Backends are expensive to create, use HandleClientRegistry to share them.
+     */
+    public EpicRestBackend(SubnodeConfiguration config) throws HandleException {
+        String strApiUrl = config.getString("epicApiUrl", "");
+        if (StringUtils.isBlank(strApiUrl)) {
+            throw new HandleException(HandleException.INVALID_VALUE, "epicApiUrl is needed for the ePIC REST backend");
+        }
+        this.apiUrl = URI.create(strApiUrl.endsWith("/") ? strApiUrl : strApiUrl + "/");
+        String credentials = config.getString("epicApiUser", "") + ":" + config.getString("epicApiPassword", "");
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        this.base = config.getString("base");
+        this.prefix = config.getString("url");
+        this.separator = config.getString("separator", "-");
+        this.requestTimeout = Duration.ofMillis(config.getLong("requestTimeout", 30000));
+        String updateExistingHandles = config.getString("updateExistingHandles", "always");
+        this.updateChangedHandlesOnly = "changed".equalsIgnoreCase(updateExistingHandles);
+        this.skipExistingHandles = "never".equalsIgnoreCase(updateExistingHandles);
+        this.namingStrategy = BuiltInNamingStrategy.getByName(config.getString("namingStrategy", "probe"));
+        this.requestLimiter = AdaptiveRequestLimiter.forServer(base, config.getInt("minConcurrentRequests", 1),
+                config.getInt("maxConcurrentRequests", 64), config.getLong("latencyTarget", 0));
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (!requestTimeout.isZero()) {
+            builder.connectTimeout(requestTimeout);
+        }
+        this.httpClient = builder.build();
+    }
+
+    /**
+     * Close the connections once the running requests are finished.
+     */
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+
+    /**
+     * Make a handle for the element, named by the configured naming strategy, or else with the first free numbered suffix.
+     */
+    @Override
+    public String makeURLHandleForObject(String objectId, String postfix, DocStruct docstruct, HandleNamingStrategy.Element element)
+            throws HandleException {
+        String handle = getNamedHandle(objectId, postfix, element);
+        if (handle != null) {
+            return HandleMetrics.current().time(Operation.NEW_URL_HANDLE, () -> {
+                // an existing handle belongs to another element, unless the journal of an earlier run reserved it for this one
+                if (!createHandle(handle) && !handle.equals(element.getJournaledHandle())) {
+                    HandleMetrics.current().addCollision();
+                    throw new HandleException(HandleException.HANDLE_ALREADY_EXISTS, "Handle " + handle
+                            + " exists already and belongs to another element. The naming strategy gives the same name to different elements.");
+                }
+                return handle;
+            });
+        }
+        return HandleMetrics.current().time(Operation.NEW_URL_HANDLE, () -> mintHandle(base + "/" + postfix + objectId));
+    }
+
+    @Override
+    public String getNamedHandle(String objectId, String postfix, HandleNamingStrategy.Element element) {
+        String suffix = element == null ? null : namingStrategy.getSuffix(element);
+        if (suffix == null) {
+            return null;
+        }
+        String stem = base + "/" + postfix + objectId;
+        return suffix.isEmpty() ? stem : stem + separator + suffix;
+    }
+
+    /**
+     * Create "stem" or "stem-N", trying one suffix after the other until the server accepts a create request.
+     */
+    private String mintHandle(String stem) throws HandleException {
+        AtomicInteger lastSuffix = getLastSuffix(stem);
+        for (int probes = 0; probes <= MAX_SUFFIX_PROBES; probes++) {
+            int suffix = lastSuffix.getAndIncrement();
+            String candidate = suffix < 0 ? stem : stem + "-" + suffix;
+            if (createHandle(candidate)) {
+                log.debug("Handle created: " + candidate);
+                return candidate;
+            }
+            HandleMetrics.current().addCollision();
+        }
+        throw new HandleException(HandleException.INTERNAL_ERROR, "Failed to find a free handle for " + stem);
+    }
+
+    /**
+     * Create the handle, if it does not exist yet.
+     *
+     * @return true if it was created, false if it existed already
+     */
+    private boolean createHandle(String handle) throws HandleException {
+        HttpRequest request = newRequest(handle).header("Content-Type", "application/json")
+                .header("If-None-Match", "*")
+                .PUT(HttpRequest.BodyPublishers.ofString(createValues(handle), StandardCharsets.UTF_8))
+                .build();
+        int status = send(request, BodyHandlers.discarding()).statusCode();
+        if (status == 201 || status == 200 || status == 204 || status == 412) {
+            resolutionCache.put(handle, true);
+            return status != 412;
+        }
+        throw unexpectedStatus("create", handle, status);
+    }
+
+    @Override
+    public UpdateResult updateURLHandleForObject(String handle, String postfix, DocStruct docstruct) throws HandleException {
+        if (skipExistingHandles) {
+            return UpdateResult.SKIPPED;
+        }
+        String url = getURLForHandle(handle);
+        if (updateChangedHandlesOnly && url.equals(resolveURL(handle))) {
+            log.debug("Handle " + handle + " already points to " + url);
+            return UpdateResult.UNCHANGED;
+        }
+        return HandleMetrics.current().time(Operation.CHANGE_HANDLE_URL, () -> {
+            // only change the handle if it exists, a plain PUT would create it
+            HttpRequest request = newRequest(handle).header("Content-Type", "application/json")
+                    .header("If-Match", "*")
+                    .PUT(HttpRequest.BodyPublishers.ofString(createValues(handle), StandardCharsets.UTF_8))
+                    .build();
+            int status = send(request, BodyHandlers.discarding()).statusCode();
+            if (status == 200 || status == 201 || status == 204) {
+                return UpdateResult.UPDATED;
+            }
+            if (status == 404 || status == 412) {
+                log.debug("Handle " + handle + " does not exist, it cannot be updated");
+                return UpdateResult.FAILED;
+            }
+            throw unexpectedStatus("update", handle, status);
+        });
+    }
+
+    /**
+     * Returns the URL registered for the handle, or null if the handle or its URL value does not exist.
+     */
+    public String resolveURL(String handle) throws HandleException {
+        HttpRequest request = newRequest(handle).GET().build();
+        HttpResponse<InputStream> response = send(request, BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 404) {
+                resolutionCache.put(handle, false);
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                throw unexpectedStatus("resolve", handle, response.statusCode());
+            }
+            resolutionCache.put(handle, true);
+            return readURL(new InputStreamReader(body, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new HandleException(HandleException.CANNOT_CONNECT_TO_SERVER, "Could not read the values of " + handle + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean remove(String handle) throws HandleException {
+        return HandleMetrics.current().time(Operation.REMOVE, () -> {
+            int status = send(newRequest(handle).DELETE().build(), BodyHandlers.discarding()).statusCode();
+            if (status == 200 || status == 204) {
+                log.info("Handle deleted: " + handle);
+                resolutionCache.put(handle, false);
+                return true;
+            }
+            if (status == 404) {
+                log.info("Handle not found: " + handle);
+                resolutionCache.put(handle, false);
+                return false;
+            }
+            throw unexpectedStatus("delete", handle, status);
+        });
+    }
+
+    private String getURLForHandle(String handle) {
+        return prefix + handle;
+    }
+
+    /**
+     * The values of a handle, of which the server only needs the URL. The admin value is added by the server.
+     */
+    private String createValues(String handle) {
+        JsonObject value = new JsonObject();
+        value.addProperty("type", "URL");
+        value.addProperty("parsed_data", getURLForHandle(handle));
+        JsonArray values = new JsonArray();
+        values.add(value);
+        return values.toString();
+    }
+
+    private HttpRequest.Builder newRequest(String handle) {
+        int slash = handle.indexOf('/');
+        String path = slash < 0 ? encode(handle) : encode(handle.substring(0, slash)) + "/" + encode(handle.substring(slash + 1));
+        HttpRequest.Builder builder = HttpRequest.newBuilder(apiUrl.resolve(path))
+                .header("Authorization", authorization)
+                .header("Accept", "application/json");
+        if (!requestTimeout.isZero()) {
+            builder.timeout(requestTimeout);
+        }
+        return builder;
+    }
+
+    private static String encode(String segment) {
+        return URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * Send a request through the adaptive limiter. Timeouts, answers of an overloaded server and server errors count as failures.
+     */
+    private <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> bodyHandler) throws HandleException {
+        requestLimiter.acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            HttpResponse<T> response = httpClient.send(request, bodyHandler);
+            HandleMetrics.current().addResponseCode(response.statusCode());
+            if (response.statusCode() == 401 || response.statusCode() == 403) {
+                // wrong credentials are no sign of an overloaded server
+                failed = false;
+                throw new HandleException(HandleException.UNABLE_TO_AUTHENTICATE,
+                        "The ePIC API refused the credentials, " + request.method() + " " + request.uri() + " answered " + response.statusCode());
+            }
+            failed = response.statusCode() == 429 || response.statusCode() >= 500;
+            return response;
+        } catch (HttpTimeoutException e) {
+            throw new HandleException(HandleException.CANNOT_CONNECT_TO_SERVER, "No answer from the ePIC API within " + requestTimeout.toMillis()
+                    + " ms: " + request.method() + " " + request.uri());
+        } catch (IOException e) {
+            throw new HandleException(HandleException.CANNOT_CONNECT_TO_SERVER, "Request to the ePIC API failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted while waiting for the ePIC API");
+        } finally {
+            requestLimiter.release(System.nanoTime() - start, failed, "GET".equals(request.method()));
+        }
+    }
+
+    private static HandleException unexpectedStatus(String action, String handle, int status) {
+        return new HandleException(HandleException.INTERNAL_ERROR, "Failed trying to " + action + " " + handle + ", the ePIC API answered " + status);
+    }
+
+    /**
+     * The counter of the last suffix tried for this stem. New stems start at -1, which stands for the stem itself.
+     */
+    private AtomicInteger getLastSuffix(String stem) {
+        lastSuffixesLock.lock();
+        try {
+            return lastSuffixes.computeIfAbsent(stem, s -> new AtomicInteger(-1));
+        } finally {
+            lastSuffixesLock.unlock();
+        }
+    }
+
+    /**
+     * Read the "parsed_data" of the value of type "URL" from the array of values the API returns for a handle, e.g.
+     *
+     * <pre>
+     * [{"idx":1,"type":"URL","parsed_data":"https://viewer.example.org/...","timestamp":"...","ttl":86400,"privs":"rwr-"}, ...]
+     * </pre>
+     *
+     * Reading stops at the end of the URL value.
+     *
+     * @return the URL, or null if there is no URL value
+     */
+    static String readURL(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        try {
+            json.beginArray();
+            while (json.hasNext()) {
+                String type = null;
+                String url = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if ("type".equals(name) && json.peek() == JsonToken.STRING) {
+                        type = json.nextString();
+                    } else if ("parsed_data".equals(name) && json.peek() == JsonToken.STRING) {
+                        url = json.nextString();
+                    } else {
+                        json.skipValue();
+                    }
+                    if ("URL".equals(type) && url != null) {
+                        return url;
+                    }
+                }
+                json.endObject();
+            }
+            return null;
+        } catch (IllegalStateException e) {
+            // the answer is JSON, but not an array of handle values
+            throw new IOException("Expected an array of handle values: " + e.getMessage());
+        }
+    }
+}
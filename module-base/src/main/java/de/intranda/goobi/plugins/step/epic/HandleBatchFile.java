@@ -0,0 +1,236 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.AbstractMessage;
+import net.handle.hdllib.AbstractRequest;
+import net.handle.hdllib.AbstractResponse;
+import net.handle.hdllib.AdminRecord;
+import net.handle.hdllib.CreateHandleRequest;
+import net.handle.hdllib.CreateHandleResponse;
+import net.handle.hdllib.DeleteHandleRequest;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.ErrorResponse;
+import net.handle.hdllib.GenericResponse;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ModifyValueRequest;
+import net.handle.hdllib.ResolutionRequest;
+import net.handle.hdllib.Util;
+
+/**
+ * Offline replacement for the handle server: the requests of a client are written to a file in the batch format of the Handle.net software
+ * instead of being sent. The server operator loads the file in one pass, which is much faster than sending hundreds of thousands of single
+ * requests. The handles are written into the METS files as usual, so they are known before they are registered.
+ *
+ * Existence checks are answered from the file alone: a handle exists if the file creates it. Handles registered at the server by other means are
+ * not known, so new handles should be named by a naming strategy other than "probe", or use stems that are not registered yet. The file does not
+ * contain the AUTHENTICATE header, the operator adds it when loading the file.
+ *
+ * A file that is used again, e.g. by a bulk run that is started again, is appended to. Handles it creates already are not created a second
+ * time.
+ */
+@Log4j2
+public class HandleBatchFile {
+
+    private static final Map<Path, HandleBatchFile> FILES = new ConcurrentHashMap<>();
+
+    private static final String CREATE = "CREATE ";
+    private static final String MODIFY = "MODIFY ";
+    private static final String DELETE = "DELETE ";
+
+    private final Path file;
+    private final Set<String> createdHandles = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+
+    /**
+     * Get the batch file with the given path. All clients using the same file share one instance.
+     */
+    public static HandleBatchFile forFile(Path file) {
+        return FILES.computeIfAbsent(file.toAbsolutePath().normalize(), HandleBatchFile::new);
+    }
+
+    HandleBatchFile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Carry out the request by writing it to the file, and return the response the server would give.
+     */
+    public AbstractResponse process(AbstractRequest request) throws HandleException {
+        String handle = Util.decodeString(request.handle);
+        lock.lock();
+        try {
+            open();
+            if (request instanceof ResolutionRequest) {
+                return createdHandles.contains(handle) ? new GenericResponse(request, AbstractMessage.RC_SUCCESS)
+                        : new ErrorResponse(request, AbstractMessage.RC_HANDLE_NOT_FOUND, null);
+            } else if (request instanceof CreateHandleRequest) {
+                if (createdHandles.contains(handle)) {
+                    return new ErrorResponse(request, AbstractMessage.RC_HANDLE_ALREADY_EXISTS, null);
+                }
+                append(formatOperation(CREATE, handle, ((CreateHandleRequest) request).values));
+                createdHandles.add(handle);
+                return new CreateHandleResponse(request, request.handle);
+            } else if (request instanceof ModifyValueRequest) {
+                append(formatOperation(MODIFY, handle, ((ModifyValueRequest) request).values));
+                return new GenericResponse(request, AbstractMessage.RC_SUCCESS);
+            } else if (request instanceof DeleteHandleRequest) {
+                append(DELETE + handle + "\n\n");
+                createdHandles.remove(handle);
+                return new GenericResponse(request, AbstractMessage.RC_SUCCESS);
+            }
+            throw new HandleException(HandleException.INVALID_VALUE, "Request cannot be written to a batch file: " + request);
+        } catch (IOException e) {
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Could not write to the batch file " + file + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make sure everything written so far is on disk, e.g. before the handles are saved in the METS file.
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.force(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open the file on first use, remembering the handles it creates already.
+     */
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        if (Files.exists(file)) {
+            load();
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void load() throws IOException {
+        long size = 0;
+        long complete = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Set<String> blockCreates = new HashSet<>();
+            Set<String> blockDeletes = new HashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                size += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (line.startsWith(CREATE)) {
+                    blockCreates.add(line.substring(CREATE.length()).trim());
+                } else if (line.startsWith(DELETE)) {
+                    blockDeletes.add(line.substring(DELETE.length()).trim());
+                } else if (line.isEmpty()) {
+                    // an operation is complete with the blank line after it
+                    createdHandles.removeAll(blockDeletes);
+                    createdHandles.addAll(blockCreates);
+                    blockCreates.clear();
+                    blockDeletes.clear();
+                    complete = size;
+                }
+            }
+        }
+        if (complete < Files.size(file)) {
+            // an operation was cut off by a crash while it was written, its handle was never saved in a METS file
+            log.warn("Removing an incomplete operation at the end of the batch file " + file);
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(complete);
+            }
+        }
+        log.info("Batch file " + file + " creates " + createdHandles.size() + " handles already");
+    }
+
+    private void append(String operation) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(operation.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * An operation on the handle with its values, e.g.
+     *
+     * <pre>
+     * CREATE 21.T11998/go-goobi-PPN123-1
+     * 100 HS_ADMIN 86400 1110 ADMIN 300:110001110000:0.NA/21.T11998
+     * 1 URL 86400 1110 UTF8 https://viewer.example.org/21.T11998/go-goobi-PPN123-1
+     * </pre>
+     *
+     * followed by a blank line, which ends the operation.
+     */
+    static String formatOperation(String operation, String handle, HandleValue[] values) throws HandleException {
+        StringBuilder sb = new StringBuilder(operation).append(handle).append('\n');
+        for (HandleValue value : values) {
+            sb.append(formatValue(value)).append('\n');
+        }
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * A handle value as "index type ttl permissions data", the permissions being admin read, admin write, public read and public write.
+     */
+    static String formatValue(HandleValue value) throws HandleException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(value.getIndex()).append(' ').append(value.getTypeAsString()).append(' ').append(value.getTTL()).append(' ');
+        sb.append(toBit(value.getAdminCanRead()))
+                .append(toBit(value.getAdminCanWrite()))
+                .append(toBit(value.getAnyoneCanRead()))
+                .append(toBit(value.getAnyoneCanWrite()))
+                .append(' ');
+        if ("HS_ADMIN".equals(value.getTypeAsString())) {
+            AdminRecord admin = new AdminRecord();
+            Encoder.decodeAdminRecord(value.getData(), 0, admin);
+            sb.append("ADMIN ").append(admin.adminIdIndex).append(':').append(formatPermissions(admin)).append(':');
+            sb.append(Util.decodeString(admin.adminId));
+        } else {
+            String data = value.getDataAsString();
+            if (data.indexOf('\n') >= 0 || data.indexOf('\r') >= 0) {
+                throw new HandleException(HandleException.INVALID_VALUE, "Value with line break cannot be written to a batch file: " + data);
+            }
+            sb.append("UTF8 ").append(data);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The permissions of the admin record in the order of the batch format.
+     */
+    private static String formatPermissions(AdminRecord admin) {
+        int[] order = { AdminRecord.ADD_HANDLE, AdminRecord.DELETE_HANDLE, AdminRecord.ADD_DERIVED_PREFIX, AdminRecord.DELETE_DERIVED_PREFIX,
+                AdminRecord.MODIFY_VALUE, AdminRecord.REMOVE_VALUE, AdminRecord.ADD_VALUE, AdminRecord.READ_VALUE, AdminRecord.MODIFY_ADMIN,
+                AdminRecord.REMOVE_ADMIN, AdminRecord.ADD_ADMIN, AdminRecord.LIST_HANDLES };
+        StringBuilder sb = new StringBuilder();
+        for (int permission : order) {
+            sb.append(toBit(admin.perms[permission]));
+        }
+        return sb.toString();
+    }
+
+    private static char toBit(boolean value) {
+        return value ? '1' : '0';
+    }
+}
@@ -0,0 +1,221 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Registers or refreshes the handles of many processes in one go, e.g. to back-fill handles for existing processes from a GoobiScript or an
+ * administration task. Each process is handled by the step plugin of its ePIC step, so the configuration of that step applies. All processes
+ * share the pooled handle clients.
+ *
+ * Successfully finished processes are appended to a checkpoint file. A run that is started again with the same file skips them, so an
+ * interrupted run continues where it stopped.
+ *
+ * For migrations, the handles can be written to a batch file instead of being registered at the server one by one. The handles are saved in the
+ * METS files as usual, and the server operator loads the batch file in one pass.
+ *
+ * Run it on the Goobi server with the classes and libraries of Goobi workflow and the plugin on the class path:
+ *
+ * <pre>
+ * java -cp "/path/to/goobi/WEB-INF/classes:/path/to/goobi/WEB-INF/lib/*:/opt/digiverso/goobi/plugins/step/*" \
+ *     de.intranda.goobi.plugins.step.epic.HandleBulkRegistration "project:Digitisation" 8 /tmp/handles.checkpoint /tmp/handles.batch
+ * </pre>
+ *
+ * The arguments are the Goobi filter, the number of workers and optionally the checkpoint file and the batch file. Goobi workflow reads its
+ * configuration from /opt/digiverso/goobi/config as usual, but gets its database connection from the JNDI resource "jdbc/goobi", which only
+ * Tomcat defines. Outside of Tomcat, a JNDI provider on the class path has to offer that resource, see the documentation of the plugin.
+ */
+@Log4j2
+public class HandleBulkRegistration {
+
+    private static final String PLUGIN_TITLE = "intranda_step_epic_pid";
+    private static final long REPORT_INTERVAL_SECONDS = 30;
+
+    private final int workers;
+    private final Path checkpointFile;
+    private final Path batchFile;
+
+    private final LongAdder processesDone = new LongAdder();
+    private final LongAdder processesFailed = new LongAdder();
+    private final LongAdder handlesDone = new LongAdder();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private long startTime;
+
+    /**
+     * @param workers number of processes handled at the same time
+     * @param checkpointFile file listing the finished process IDs, may be null to disable checkpointing
+     */
+    public HandleBulkRegistration(int workers, Path checkpointFile) {
+        this(workers, checkpointFile, null);
+    }
+
+    /**
+     * @param workers number of processes handled at the same time
+     * @param checkpointFile file listing the finished process IDs, may be null to disable checkpointing
+     * @param batchFile Handle.net batch file to write the handle operations to instead of sending them to the server, may be null to use the
+     *            batch file of the step configuration, if any
+     */
+    public HandleBulkRegistration(int workers, Path checkpointFile, Path batchFile) {
+        this.workers = Math.max(1, workers);
+        this.checkpointFile = checkpointFile;
+        this.batchFile = batchFile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: HandleBulkRegistration <filter> [<workers> [<checkpoint file> [<batch file>]]]");
+            System.exit(2);
+        }
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        Path checkpointFile = args.length > 2 ? Paths.get(args[2]) : null;
+        Path batchFile = args.length > 3 ? Paths.get(args[3]) : null;
+        HandleBulkRegistration registration = new HandleBulkRegistration(workers, checkpointFile, batchFile);
+        registration.runForFilter(args[0]);
+        System.exit(registration.processesFailed.sum() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Register the handles of all processes matching the Goobi filter.
+     */
+    public void runForFilter(String filter) throws IOException {
+        run(ProcessManager.getIdsForFilter(filter));
+    }
+
+    /**
+     * Register the handles of the given processes.
+     */
+    public void run(List<Integer> processIds) throws IOException {
+        Set<Integer> finished = readCheckpoint();
+        List<Integer> todo = new ArrayList<>();
+        for (Integer id : processIds) {
+            if (!finished.contains(id)) {
+                todo.add(id);
+            }
+        }
+        log.info("Bulk handle registration: " + todo.size() + " processes to do, " + (processIds.size() - todo.size()) + " already finished");
+        if (batchFile != null) {
+            log.info("Writing the handle operations to the batch file " + batchFile);
+        }
+
+        startTime = System.currentTimeMillis();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> log.info(getProgress(todo.size())), REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+
+        try (HandleTaskExecutor executor = new HandleTaskExecutor(workers);
+                BufferedWriter checkpoint = openCheckpoint()) {
+            List<Future<Boolean>> futures = new ArrayList<>(todo.size());
+            for (Integer id : todo) {
+                futures.add(executor.submit(() -> registerProcess(id, checkpoint)));
+            }
+            executor.awaitEach(futures);
+        } finally {
+            reporter.shutdownNow();
+        }
+        log.info("Bulk handle registration finished. " + getProgress(todo.size()));
+    }
+
+    private boolean registerProcess(Integer processId, BufferedWriter checkpoint) throws IOException {
+        Process process = ProcessManager.getProcessById(processId);
+        Step step = findStep(process);
+        if (step == null) {
+            log.warn("Process " + processId + " has no step for " + PLUGIN_TITLE + ", skipping it");
+            processesFailed.increment();
+            return false;
+        }
+
+        EpicPidStepPlugin plugin = new EpicPidStepPlugin();
+        plugin.initialize(step, "");
+        if (batchFile != null) {
+            // the configuration block is shared with the regular step executions, so the batch file is set on a copy
+            SubnodeConfiguration config = plugin.getConfig();
+            HierarchicalConfiguration copy = new HierarchicalConfiguration(config);
+            copy.setExpressionEngine(config.getExpressionEngine());
+            copy.setProperty("batchFile", batchFile.toString());
+            plugin.setConfig(new SubnodeConfiguration(copy, copy.getRootNode()));
+        }
+        if (plugin.run() == PluginReturnValue.ERROR) {
+            processesFailed.increment();
+            return false;
+        }
+
+        RegistrationSummary summary = plugin.getSummary();
+        if (summary != null) {
+            handlesDone.add(summary.getCreated() + summary.getRecovered() + summary.getUpdated() + summary.getUnchanged() + summary.getSkipped());
+        }
+        processesDone.increment();
+        if (checkpoint != null) {
+            checkpointLock.lock();
+            try {
+                checkpoint.write(String.valueOf(processId));
+                checkpoint.newLine();
+                checkpoint.flush();
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    private Step findStep(Process process) {
+        if (process == null || process.getSchritte() == null) {
+            return null;
+        }
+        for (Step step : process.getSchritte()) {
+            if (PLUGIN_TITLE.equals(step.getStepPlugin())) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    private Set<Integer> readCheckpoint() throws IOException {
+        Set<Integer> finished = new HashSet<>();
+        if (checkpointFile != null && Files.exists(checkpointFile)) {
+            for (String line : Files.readAllLines(checkpointFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    finished.add(Integer.valueOf(line.trim()));
+                }
+            }
+        }
+        return finished;
+    }
+
+    private BufferedWriter openCheckpoint() throws IOException {
+        if (checkpointFile == null) {
+            return null;
+        }
+        return Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private String getProgress(int total) {
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000d;
+        long done = processesDone.sum();
+        return String.format("%d of %d processes done, %d failed, %.1f processes/s, %.1f handles/s", done, total, processesFailed.sum(),
+                done / seconds, handlesDone.sum() / seconds);
+    }
+}
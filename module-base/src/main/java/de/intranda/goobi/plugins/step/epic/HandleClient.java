@@ -4,6 +4,14 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -11,15 +19,35 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.lang.StringUtils;
 
+import de.intranda.goobi.plugins.step.epic.HandleMetrics.Operation;
 import de.sub.goobi.config.ConfigurationHelper;
 import lombok.extern.log4j.Log4j;
 import net.handle.hdllib.AbstractMessage;
+import net.handle.hdllib.AbstractRequest;
 import net.handle.hdllib.AbstractResponse;
 import net.handle.hdllib.AdminRecord;
+import net.handle.hdllib.ClientSessionTracker;
+import net.handle.hdllib.Common;
 import net.handle.hdllib.CreateHandleRequest;
 import net.handle.hdllib.CreateHandleResponse;
 import net.handle.hdllib.DeleteHandleRequest;
@@ -31,14 +59,20 @@ import net.handle.hdllib.HandleValue;
 import net.handle.hdllib.ModifyValueRequest;
 import net.handle.hdllib.PublicKeyAuthenticationInfo;
 import net.handle.hdllib.ResolutionRequest;
+import net.handle.hdllib.ResolutionResponse;
+import net.handle.hdllib.SessionSetupInfo;
+import net.handle.hdllib.SiteInfo;
 import net.handle.hdllib.Util;
 import ugh.dl.DocStruct;
 
 /**
  * Creates requests for the Handle Service, querying handles and creating new handles.
+ * 
+ * A client can be shared by several threads registering handles for the same object: the suffix counter and the list of checked handles are
+ * thread safe.
  */
 @Log4j
-public class HandleClient {
+public class HandleClient implements PidBackend {
 
     //static fields
     private String certificate;
@@ -49,41 +83,165 @@ public class HandleClient {
     private int ADMIN_INDEX = 300; //NOT 28!
     private int ADMIN_RECORD_INDEX = 100;
     private static int URL_RECORD_INDEX = 1;
+    private static final int MAX_SUFFIX_PROBES = 5000;
+    private static final int MAX_SUFFIX_COUNTERS = 10000;
+    private boolean optimisticMinting;
+    private boolean updateChangedHandlesOnly;
+    private boolean skipExistingHandles;
+    private long requestTimeout;
+    private long resolveTimeout;
+    private boolean hedgeResolution;
+    // hedges are sent after this delay as long as there are not enough latencies for a percentile
+    private static final long DEFAULT_HEDGE_DELAY_MS = 100;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    // types of the values of a prefix handle that name the sites of the prefix
+    private static final String HS_SITE = "HS_SITE";
+    private static final String HS_SERV = "HS_SERV";
+
+    // run the attempts of hedged resolutions, the number of requests in flight is bounded by the limiter. Each is created on first use.
+    private static class RequestExecutor {
+        private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "epic-pid-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class VirtualRequestExecutor {
+        private static final ExecutorService INSTANCE =
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("epic-pid-request-", 0).factory());
+    }
 
     // Non-Static fields
     private PrivateKey privKey;
     PublicKeyAuthenticationInfo authInfo;
     HandleResolver resolver;
-    private ArrayList<String> lstCheckedHandles;
-    private int iLastSuffix;
-    String tempFolder;
+    // resolves handles, with the timeouts of resolutions; the same as resolver if the resolver was given
+    private HandleResolver resolutionResolver;
+    private ResolutionCache resolutionCache;
+    private final Map<String, AtomicInteger> lastSuffixes = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicInteger> eldest) {
+            return size() > MAX_SUFFIX_COUNTERS;
+        }
+    };
+    private final ReentrantLock lastSuffixesLock = new ReentrantLock();
+    private SuffixIndex suffixIndex;
+    private SuffixSearchStrategy suffixSearch;
+    private HandleNamingStrategy namingStrategy;
+    private AdaptiveRequestLimiter requestLimiter;
+    private final LatencyHistogram resolutionLatency = new LatencyHistogram(1000, 50);
+    private SiteInfoCache siteCache;
+    // send requests straight to the cached site of the prefix instead of letting the resolver look it up
+    private boolean useCachedSites;
+    private SessionStatistics sessionStatistics;
+    private boolean virtualThreads;
+    // requests are written to this file instead of being sent, null to send them to the server
+    private HandleBatchFile batchFile;
+    // private configuration folder of the resolver
+    Path resolverFolder;
+    // held while the folder is in use, a folder whose lock is free is left over by a JVM that did not close its clients
+    private FileChannel resolverLock;
+    private static final String RESOLVER_LOCK = "client.lock";
+    // sum of the default UDP retry schedule of the resolver
+    private static final int DEFAULT_UDP_RETRY_TIME_MS = 3000;
+    // resolver folders younger than this are not removed, their client may not have taken the lock yet
+    private static final long STALE_RESOLVER_FOLDER_AGE_MS = 60000;
+    private static final AtomicBoolean STALE_RESOLVER_FOLDERS_REMOVED = new AtomicBoolean();
 
     /**
-     * Constructor. Note that this resets the last suffix index: if this client is used for multiple IDs, call resetSuffix() between them.
+     * Constructor. The last suffix is counted per handle stem, so the client can be used for several IDs at the same time. Clients are expensive
+     * to create, use HandleClientRegistry to share them.
      * 
      * @param config
      * @throws HandleException
      * @throws IOException
      */
     public HandleClient(SubnodeConfiguration config) throws HandleException, IOException {
+        this(config, null);
+    }
+
+    /**
+     * Constructor using the given resolver instead of one that talks to the handle servers, e.g. for benchmarks and tests.
+     * 
+     * @param resolver the resolver to send the requests to, null to create the default one
+     */
+    HandleClient(SubnodeConfiguration config, HandleResolver resolver) throws HandleException, IOException {
         this.user = config.getString("user");
         this.base = config.getString("base");
         this.prefix = config.getString("url");
-        this.separator = config.getString("separator");
+        this.separator = config.getString("separator", "-");
         this.certificate = config.getString("certificate");
         this.privKey = getPemPrivateKey();
         ADMIN_INDEX = config.getInt("adminIndex", 300);
         ADMIN_RECORD_INDEX = config.getInt("adminRecordIndex", 100);
+        this.optimisticMinting = config.getBoolean("optimisticMinting", false);
+        String updateExistingHandles = config.getString("updateExistingHandles", "always");
+        this.updateChangedHandlesOnly = "changed".equalsIgnoreCase(updateExistingHandles);
+        this.skipExistingHandles = "never".equalsIgnoreCase(updateExistingHandles);
+        this.suffixSearch = SuffixSearchStrategy.getByName(config.getString("suffixSearch", "linear"));
+        this.namingStrategy = BuiltInNamingStrategy.getByName(config.getString("namingStrategy", "probe"));
+        String strSuffixIndex = config.getString("suffixIndex", "");
+        if (StringUtils.isNotBlank(strSuffixIndex)) {
+            this.suffixIndex = SuffixIndex.forFile(Paths.get(strSuffixIndex));
+        }
+        String strBatchFile = config.getString("batchFile", "");
+        if (StringUtils.isNotBlank(strBatchFile)) {
+            this.batchFile = HandleBatchFile.forFile(Paths.get(strBatchFile));
+        }
+        this.requestTimeout = config.getLong("requestTimeout", 30000);
+        this.resolveTimeout = config.getLong("resolveTimeout", requestTimeout);
+        this.hedgeResolution = batchFile == null && config.getBoolean("hedgeResolution", false);
+        this.virtualThreads = config.getBoolean("virtualThreads", false);
         this.authInfo = new PublicKeyAuthenticationInfo(Util.encodeString(user), ADMIN_INDEX, privKey);
-        this.lstCheckedHandles = new ArrayList<>();
-        //specify the temp folder:
-        tempFolder = ConfigurationHelper.getInstance().getTemporaryFolder() + ".handles";
-        net.handle.hdllib.FilesystemConfiguration handleConfig = new FilesystemConfiguration(new File(tempFolder));
-        handleConfig.setAutoUpdateRootInfo(false);
-        resolver = new HandleResolver();
-        resolver.setConfiguration(handleConfig);
+        this.requestLimiter = AdaptiveRequestLimiter.forServer(base, config.getInt("minConcurrentRequests", 1),
+                config.getInt("maxConcurrentRequests", 64), config.getLong("latencyTarget", 0));
+        //handles that only exist in a batch file must not be taken as registered by clients that talk to the server
+        this.resolutionCache = batchFile == null ? ResolutionCache.getInstance() : new ResolutionCache();
+        resolutionCache.configure(config.getInt("resolutionCacheSize", 100000), config.getLong("resolutionCacheTimeToLive", 3600),
+                config.getLong("resolutionCacheNegativeTimeToLive", 60));
+        if (resolver == null) {
+            //every client gets its own configuration folder, so that clients and runs never share or delete each other's resolver state
+            Path pluginFolder = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "epic-pid");
+            Files.createDirectories(pluginFolder);
+            if (STALE_RESOLVER_FOLDERS_REMOVED.compareAndSet(false, true)) {
+                removeStaleResolverFolders(pluginFolder);
+            }
+            resolverFolder = Files.createTempDirectory(pluginFolder, "resolver-");
+            resolverLock = FileChannel.open(resolverFolder.resolve(RESOLVER_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            resolverLock.lock();
+            net.handle.hdllib.FilesystemConfiguration handleConfig = new FilesystemConfiguration(resolverFolder.toFile());
+            handleConfig.setAutoUpdateRootInfo(false);
+            resolver = new HandleResolver();
+            resolver.setConfiguration(handleConfig);
+            resolutionResolver = new HandleResolver();
+            resolutionResolver.setConfiguration(handleConfig);
+
+            String siteCacheFolder = config.getString("siteCacheFolder", pluginFolder.resolve("sites").toString());
+            siteCache = SiteInfoCache.forFolder(Paths.get(siteCacheFolder));
+            // the resolver of a session tracker has to choose the server itself
+            useCachedSites = !config.getBoolean("useSessions", false);
+            setTimeout(resolver, requestTimeout);
+            setTimeout(resolutionResolver, resolveTimeout);
+        } else {
+            siteCache = SiteInfoCache.inMemory();
+            resolutionResolver = resolver;
+            setTimeout(resolver, Math.max(requestTimeout, resolveTimeout));
+        }
+        siteCache.configure(config.getInt("siteCacheSize", 100), config.getLong("siteCacheRefresh", 86400));
+        this.resolver = resolver;
+        if (config.getBoolean("useSessions", false)) {
+            //authenticate once per session instead of answering a challenge for every administrative request
+            int sessionTimeout = config.getInt("sessionTimeout", 3600);
+            SessionSetupInfo sessionInfo = new SessionSetupInfo(Common.KEY_EXCHANGE_DH, null, -1, null);
+            sessionInfo.timeout = sessionTimeout;
+            sessionInfo.authenticated = true;
+            resolver.setSessionTracker(new ClientSessionTracker(sessionInfo));
+            sessionStatistics = new SessionStatistics(sessionTimeout);
+        }
 
-        resetSuffix();
     }
 
     /**
@@ -91,6 +249,27 @@ public class HandleClient {
      * 
      */
     public String makeURLHandleForObject(String strObjectId, String strPostfix, DocStruct docstruct) throws HandleException {
+        return makeURLHandleForObject(strObjectId, strPostfix, docstruct, null);
+    }
+
+    /**
+     * Make a handle for the element, named by the configured naming strategy. If the strategy does not name the element, a free suffix is
+     * searched as in makeURLHandleForObject(String, String, DocStruct).
+     * 
+     * @param element what the naming strategy may use, null to always search a free suffix
+     */
+    @Override
+    public String makeURLHandleForObject(String strObjectId, String strPostfix, DocStruct docstruct, HandleNamingStrategy.Element element)
+            throws HandleException {
+
+        String namedHandle = getNamedHandle(strObjectId, strPostfix, element);
+        if (namedHandle != null) {
+            return createNamedURLHandle(namedHandle, namedHandle.equals(element.getJournaledHandle()));
+        }
+
+        if (optimisticMinting || batchFile != null) {
+            return mintURLHandle(base + "/" + strPostfix + strObjectId);
+        }
 
         String strNewHandle = newURLHandle(base + "/" + strPostfix + strObjectId, prefix, separator, true);
         String strNewURL = getURLForHandle(strNewHandle);
@@ -102,6 +281,95 @@ public class HandleClient {
 
     }
 
+    @Override
+    public String getNamedHandle(String strObjectId, String strPostfix, HandleNamingStrategy.Element element) {
+        String suffix = element == null ? null : namingStrategy.getSuffix(element);
+        if (suffix == null) {
+            return null;
+        }
+        String stem = base + "/" + strPostfix + strObjectId;
+        return suffix.isEmpty() ? stem : stem + separator + suffix;
+    }
+
+    /**
+     * Create a handle with a name that only depends on the element, with a single create request. If the server answers that it already exists,
+     * it belongs to another element and the request fails, unless the journal reserved the handle for this element in an earlier run.
+     * 
+     * @param journaled true if the journal of an earlier, unfinished run reserved the handle for the element
+     */
+    private String createNamedURLHandle(String handle, boolean journaled) throws HandleException {
+        return HandleMetrics.current().time(Operation.NEW_URL_HANDLE, () -> doCreateNamedURLHandle(handle, journaled));
+    }
+
+    private String doCreateNamedURLHandle(String handle, boolean journaled) throws HandleException {
+        log.debug("Create " + handle);
+        CreateHandleRequest request = new CreateHandleRequest(Util.encodeString(handle), createHandleValues(getURLForHandle(handle)), authInfo);
+        AbstractResponse response = processRequest(request);
+        if (response.responseCode == AbstractMessage.RC_SUCCESS) {
+            resolutionCache.put(handle, true);
+            return handle;
+        }
+        if (response.responseCode == AbstractMessage.RC_HANDLE_ALREADY_EXISTS) {
+            resolutionCache.put(handle, true);
+            if (journaled) {
+                log.debug("Handle " + handle + " was created by an earlier run");
+                return handle;
+            }
+            throw new HandleException(HandleException.HANDLE_ALREADY_EXISTS, "Handle " + handle
+                    + " exists already and belongs to another element. The naming strategy gives the same name to different elements.");
+        }
+        throw new HandleException(HandleException.INTERNAL_ERROR,
+                "Failed trying to create a new handle at the server, response was" + response + " " + handle);
+    }
+
+    /**
+     * Make a new handle "stem" or "stem-N" pointing to its final URL, using a single create request per suffix candidate. There is no existence
+     * check beforehand: if the server answers that the candidate already exists, the next suffix is tried. Returns the new handle.
+     * 
+     * @param stem the handle without suffix, "base/postfix_id"
+     * @return
+     * @throws HandleException
+     */
+    public String mintURLHandle(String stem) throws HandleException {
+        return HandleMetrics.current().time(Operation.NEW_URL_HANDLE, () -> doMintURLHandle(stem));
+    }
+
+    private String doMintURLHandle(String stem) throws HandleException {
+        AtomicInteger iLastSuffix = getLastSuffix(stem);
+        Integer highWaterMark = getSuffixHighWaterMark(stem);
+        if (highWaterMark != null) {
+            iLastSuffix.accumulateAndGet(highWaterMark + 1, Math::max);
+        }
+
+        int iProbes = 0;
+        while (true) {
+            int suffix = iLastSuffix.getAndIncrement();
+            String strCandidate = suffix < 0 ? stem : stem + "-" + suffix;
+            log.debug("Create " + strCandidate);
+
+            CreateHandleRequest request =
+                    new CreateHandleRequest(Util.encodeString(strCandidate), createHandleValues(getURLForHandle(strCandidate)), authInfo);
+            AbstractResponse response = processRequest(request);
+
+            if (response.responseCode == AbstractMessage.RC_SUCCESS) {
+                String strFinalHandle = Util.decodeString(((CreateHandleResponse) response).handle);
+                log.debug("Handle created: " + strFinalHandle);
+                resolutionCache.put(strFinalHandle, true);
+                recordSuffix(stem, suffix);
+                return strFinalHandle;
+            }
+
+            if (response.responseCode != AbstractMessage.RC_HANDLE_ALREADY_EXISTS || ++iProbes > MAX_SUFFIX_PROBES) {
+                throw new HandleException(HandleException.INTERNAL_ERROR,
+                        "Failed trying to create a new handle at the server, response was" + response + " " + strCandidate);
+            }
+            if (suffixSearch != SuffixSearchStrategy.LINEAR) {
+                //search the next free suffix with resolution requests instead of trying one create after the other
+                iLastSuffix.accumulateAndGet(findFirstFreeSuffix(stem, suffix + 1), Math::max);
+            }
+        }
+    }
+
     /**
      * Make a new handle with specified URL. If boMintNewSuffix, add a suffix guaranteeing uniquness. Retuns the new handle.
      * 
@@ -114,24 +382,32 @@ public class HandleClient {
      */
     public String newURLHandle(String newHandle, String url, String separator, boolean mintNewSuffix)
             throws HandleException {
+        return HandleMetrics.current().time(Operation.NEW_URL_HANDLE, () -> doNewURLHandle(newHandle, url, separator, mintNewSuffix));
+    }
+
+    private String doNewURLHandle(String newHandle, String url, String separator, boolean mintNewSuffix)
+            throws HandleException {
 
         if (!mintNewSuffix && isHandleRegistered(newHandle)) {
             return newHandle;
         }
 
         String oldHandle = newHandle;
+        AtomicInteger iLastSuffix = getLastSuffix(oldHandle);
+        int iSuffix = -1;
 
         //create a unique suffix?
         if (mintNewSuffix) {
-            String strTestHandle = newHandle;
-
-            while (isHandleRegistered(strTestHandle)) {
-                iLastSuffix++;
-                strTestHandle = newHandle + "-" + iLastSuffix;
+            //continue after the highest suffix of previous runs, the probing below validates it against the server
+            Integer highWaterMark = getSuffixHighWaterMark(newHandle);
+            if (highWaterMark != null) {
+                iLastSuffix.accumulateAndGet(highWaterMark, Math::max);
+            }
 
-                if (iLastSuffix > 5000) {
-                    throw new HandleException(HandleException.INTERNAL_ERROR, "Registry query always returning true: " + newHandle);
-                }
+            String strTestHandle = newHandle;
+            if (isHandleRegistered(strTestHandle)) {
+                iSuffix = claimSuffix(iLastSuffix, findFirstFreeSuffix(oldHandle, iLastSuffix.get() + 1));
+                strTestHandle = newHandle + "-" + iSuffix;
             }
 
             //test handle ok:
@@ -139,17 +415,8 @@ public class HandleClient {
             newHandle = strTestHandle;
         }
 
-        // Define the admin record for the handle we want to create
-        AdminRecord admin = createAdminRecord(user, ADMIN_INDEX);
-
         // Make a create-handle request.
-        HandleValue values[] = { new HandleValue(ADMIN_RECORD_INDEX, // unique index
-                Util.encodeString("HS_ADMIN"), // handle value type
-                Encoder.encodeAdminRecord(admin)), //data
-
-                new HandleValue(URL_RECORD_INDEX, // unique index
-                        "URL", // handle value type
-                        url) }; //data
+        HandleValue values[] = createHandleValues(url);
 
         // Create the request to send and the resolver to send it
         log.debug("Create " + newHandle);
@@ -160,7 +427,7 @@ public class HandleClient {
         AbstractResponse response;
 
         // Let the resolver process the request
-        response = resolver.processRequest(request);
+        response = processRequest(request);
 
         // Check the response to see if operation was successful
         if (response.responseCode == AbstractMessage.RC_SUCCESS) {
@@ -169,32 +436,39 @@ public class HandleClient {
             String strFinalHandle = Util.decodeString(btHandle);
             log.debug("Handle created: " + Util.decodeString(btHandle));
 
-            if (!lstCheckedHandles.contains(newHandle)) {
-                lstCheckedHandles.add(newHandle);
+            resolutionCache.put(newHandle, true);
+            if (mintNewSuffix) {
+                recordSuffix(oldHandle, iSuffix);
             }
 
             return strFinalHandle;
         } else if (response.responseCode == AbstractMessage.RC_HANDLE_ALREADY_EXISTS) {
 
+            int iProbes = 0;
             while (response.responseCode == AbstractMessage.RC_HANDLE_ALREADY_EXISTS) {
-                iLastSuffix++;
-                String strNext = oldHandle + "-" + iLastSuffix;
+                int suffix = iLastSuffix.incrementAndGet();
+                if (suffixSearch != SuffixSearchStrategy.LINEAR) {
+                    int free = findFirstFreeSuffix(oldHandle, suffix);
+                    if (free > suffix) {
+                        suffix = claimSuffix(iLastSuffix, free);
+                    }
+                }
+                String strNext = oldHandle + "-" + suffix;
                 log.debug("Create 2 " + strNext);
                 CreateHandleRequest request2 = new CreateHandleRequest(Util.encodeString(strNext), values, authInfo);
                 // Let the resolver process the request
-                response = resolver.processRequest(request2);
+                response = processRequest(request2);
                 if (response.responseCode == AbstractMessage.RC_SUCCESS) {
                     log.debug(response);
                     byte[] btHandle = ((CreateHandleResponse) response).handle;
                     String strFinalHandle = Util.decodeString(btHandle);
                     log.debug("Handle created: " + Util.decodeString(btHandle));
-                    if (!lstCheckedHandles.contains(strFinalHandle)) {
-                        lstCheckedHandles.add(strFinalHandle);
-                    }
+                    resolutionCache.put(strFinalHandle, true);
+                    recordSuffix(oldHandle, suffix);
                     return strFinalHandle;
                 }
 
-                if (iLastSuffix > 5000) {
+                if (++iProbes > MAX_SUFFIX_PROBES) {
                     throw new HandleException(HandleException.INTERNAL_ERROR,
                             "Failed trying to create handle at the server, response was" + response + " " + newHandle);
                 }
@@ -208,21 +482,192 @@ public class HandleClient {
 
     }
 
+    /**
+     * Find the first unregistered suffix of the stem at or after start, using the configured search strategy.
+     */
+    private int findFirstFreeSuffix(String stem, int start) throws HandleException {
+        HandleMetrics metrics = HandleMetrics.current();
+        return suffixSearch.findFirstFree(start, suffix -> {
+            metrics.addSuffixProbe();
+            return isHandleRegistered(suffix < 0 ? stem : stem + "-" + suffix);
+        }, MAX_SUFFIX_PROBES);
+    }
+
+    /**
+     * Claim a free suffix for the calling thread. Threads minting under the same stem at the same time find the same free suffix, so each one
+     * takes the first suffix from there on that no other thread has claimed yet.
+     * 
+     * @param lastSuffix the last suffix claimed for the stem
+     * @return the claimed suffix
+     */
+    static int claimSuffix(AtomicInteger lastSuffix, int free) {
+        return lastSuffix.updateAndGet(last -> Math.max(last + 1, free));
+    }
+
+    /**
+     * The highest suffix minted for this stem in previous runs, or null if it is not known.
+     */
+    private Integer getSuffixHighWaterMark(String stem) {
+        if (suffixIndex == null) {
+            return null;
+        }
+        return suffixIndex.getHighWaterMark(stem);
+    }
+
+    private void recordSuffix(String stem, int suffix) {
+        if (suffixIndex != null) {
+            suffixIndex.record(stem, suffix);
+        }
+    }
+
+    /**
+     * Save the suffix index, if one is configured. Should be called when a run is finished.
+     */
+    public void flushSuffixIndex() {
+        if (suffixIndex != null) {
+            try {
+                suffixIndex.flush();
+            } catch (IOException e) {
+                log.error("Failed to save the suffix index", e);
+            }
+        }
+    }
+
+    /**
+     * Make sure the operations written to the batch file are on disk, if one is configured.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (batchFile != null) {
+            batchFile.flush();
+        }
+    }
+
+    @Override
+    public void runFinished() {
+        flushSuffixIndex();
+        logSessionStatistics();
+    }
+
+    /**
+     * Limit the time the resolver waits for an answer. Each TCP connection may stay silent for the timeout, and the UDP attempts of a resolution
+     * are spread over it, so that they are given up before the timeout.
+     */
+    private static void setTimeout(HandleResolver resolver, long timeout) {
+        if (timeout <= 0) {
+            return;
+        }
+        int millis = (int) Math.min(Integer.MAX_VALUE, timeout);
+        //do not leave abandoned requests hanging on a dead connection forever
+        resolver.setTcpTimeout(millis);
+        if (millis < DEFAULT_UDP_RETRY_TIME_MS) {
+            //the default schedule waits 0.5, 1 and 1.5 s, keep its proportions
+            resolver.setUdpRetryScheduleMillis(new int[] { Math.max(1, millis / 6), Math.max(1, millis / 3), Math.max(1, millis / 2) });
+        }
+    }
+
+    /**
+     * Save the suffix index and remove the configuration folder of the resolver.
+     */
+    @Override
+    public void close() {
+        flushSuffixIndex();
+        if (resolverFolder != null) {
+            try {
+                resolverLock.close();
+            } catch (IOException e) {
+                log.warn("Could not release the lock of the resolver folder " + resolverFolder + ": " + e.getMessage());
+            }
+            deleteFolder(resolverFolder);
+        }
+    }
+
+    /**
+     * Remove the resolver folders that clients of earlier JVMs left behind, e.g. after the application server was killed. A folder is only
+     * removed if no client holds its lock.
+     */
+    static void removeStaleResolverFolders(Path pluginFolder) {
+        long limit = System.currentTimeMillis() - STALE_RESOLVER_FOLDER_AGE_MS;
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(pluginFolder, "resolver-*")) {
+            for (Path folder : folders) {
+                if (!Files.isDirectory(folder) || Files.getLastModifiedTime(folder).toMillis() > limit) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(folder.resolve(RESOLVER_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        FileLock lock = channel.tryLock()) {
+                    if (lock == null) {
+                        continue;
+                    }
+                } catch (OverlappingFileLockException e) {
+                    // held by a client of this JVM
+                    continue;
+                }
+                log.info("Removing the resolver folder " + folder + " left over by an earlier run");
+                deleteFolder(folder);
+            }
+        } catch (IOException e) {
+            log.warn("Could not remove the resolver folders left over in " + pluginFolder + ": " + e.getMessage());
+        }
+    }
+
+    private static void deleteFolder(Path folder) {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not remove the resolver folder " + folder + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Log how the handle protocol sessions were used, if sessions are enabled.
+     */
+    public void logSessionStatistics() {
+        if (sessionStatistics != null) {
+            sessionStatistics.logStatistics();
+        }
+    }
+
     private String getURLForHandle(String strHandle) {
         return prefix + strHandle;
     }
 
     /**
-     * Given an object with specified handle, update the URL
+     * Given an object with specified handle, update the URL. If only changed handles are to be updated, the handle is resolved first and the URL
+     * is only sent if it differs from the registered one. If existing handles are not to be updated at all, no request is sent.
      * 
      */
-    public void updateURLHandleForObject(String handle, String strPostfix, DocStruct docstruct) throws HandleException {
+    @Override
+    public UpdateResult updateURLHandleForObject(String handle, String strPostfix, DocStruct docstruct) throws HandleException {
 
+        if (skipExistingHandles) {
+            return UpdateResult.SKIPPED;
+        }
         String strNewURL = getURLForHandle(handle);
-        changeHandleURL(handle, strNewURL);
+        if (updateChangedHandlesOnly && strNewURL.equals(resolveURL(handle))) {
+            log.debug("Handle " + handle + " already points to " + strNewURL);
+            return UpdateResult.UNCHANGED;
+        }
+        return changeHandleURL(handle, strNewURL) ? UpdateResult.UPDATED : UpdateResult.FAILED;
 
     }
 
+    /**
+     * Returns the URL registered for the handle, or null if the handle or its URL value does not exist.
+     */
+    public String resolveURL(String handle) throws HandleException {
+        AbstractResponse response = processResolution(handle, new int[] { URL_RECORD_INDEX });
+        if (response.responseCode != AbstractMessage.RC_SUCCESS || !(response instanceof ResolutionResponse)) {
+            log.debug("Handle " + handle + " could not be resolved: " + response.responseCode);
+            return null;
+        }
+        for (HandleValue value : ((ResolutionResponse) response).getHandleValues()) {
+            if (value.getIndex() == URL_RECORD_INDEX) {
+                return value.getDataAsString();
+            }
+        }
+        return null;
+    }
+
     /**
      * Make a new handle with specified URL. If boMintNewSuffix, add a suffix guaranteeing uniquness. Retuns the new handle.
      * 
@@ -232,17 +677,13 @@ public class HandleClient {
      * @throws HandleException
      */
     public boolean updateHandle(String handle, String url) throws HandleException {
+        return HandleMetrics.current().time(Operation.UPDATE_HANDLE, () -> doUpdateHandle(handle, url));
+    }
 
-        // Define the admin record for the handle we want to create
-        AdminRecord admin = createAdminRecord(user, ADMIN_INDEX);
-        // Make a create-handle request.
-        HandleValue values[] = { new HandleValue(ADMIN_RECORD_INDEX, // unique index
-                Util.encodeString("HS_ADMIN"), // handle value type
-                Encoder.encodeAdminRecord(admin)), //data
+    private boolean doUpdateHandle(String handle, String url) throws HandleException {
 
-                new HandleValue(URL_RECORD_INDEX, // unique index
-                        "URL", // handle value type
-                        url) }; //data
+        // Make a create-handle request.
+        HandleValue values[] = createHandleValues(url);
 
         // Create the request to send and the resolver to send it
         ModifyValueRequest request = new ModifyValueRequest(Util.encodeString(handle), values, authInfo);
@@ -250,7 +691,7 @@ public class HandleClient {
         AbstractResponse response;
 
         // Let the resolver process the request
-        response = resolver.processRequest(request);
+        response = processRequest(request);
 
         // Check the response to see if operation was successful
         if (response.responseCode == AbstractMessage.RC_SUCCESS) {
@@ -266,6 +707,10 @@ public class HandleClient {
      * Change the URL for the handle. Returns true if successful, false otherwise
      */
     public boolean changeHandleURL(String handle, String newUrl) throws HandleException {
+        return HandleMetrics.current().time(Operation.CHANGE_HANDLE_URL, () -> doChangeHandleURL(handle, newUrl));
+    }
+
+    private boolean doChangeHandleURL(String handle, String newUrl) throws HandleException {
         if (StringUtils.isEmpty(handle) || StringUtils.isEmpty(newUrl)) {
             throw new IllegalArgumentException("handle and URL cannot be empty");
         }
@@ -278,7 +723,7 @@ public class HandleClient {
             HandleValue values[] = { handleNew };
             ModifyValueRequest req = new ModifyValueRequest(Util.encodeString(handle), values, authInfo);
             //            HandleResolver resolver = new HandleResolver();
-            AbstractResponse response = resolver.processRequest(req);
+            AbstractResponse response = processRequest(req);
             String msg = AbstractMessage.getResponseCodeMessage(response.responseCode);
             log.debug("Response code from Handle request: " + msg);
             if (response.responseCode != AbstractMessage.RC_SUCCESS) {
@@ -291,6 +736,22 @@ public class HandleClient {
         return true;
     }
 
+    /**
+     * The values of a new handle: the admin record and the URL.
+     */
+    HandleValue[] createHandleValues(String url) {
+        // Define the admin record for the handle we want to create
+        AdminRecord admin = createAdminRecord(user, ADMIN_INDEX);
+
+        return new HandleValue[] { new HandleValue(ADMIN_RECORD_INDEX, // unique index
+                Util.encodeString("HS_ADMIN"), // handle value type
+                Encoder.encodeAdminRecord(admin)), //data
+
+                new HandleValue(URL_RECORD_INDEX, // unique index
+                        "URL", // handle value type
+                        url) }; //data
+    }
+
     /**
      * Create the NA admin record for a new handle. The NA admin is provided all permissions bar ADD_NA and DELETE_NA
      * 
@@ -367,23 +828,35 @@ public class HandleClient {
     }
 
     /**
-     * Returns true if the handle has already been registered, false otherwise.
+     * Returns true if the handle has already been registered, false otherwise. The answer is taken from the shared resolution cache if
+     * possible.
      * 
      */
     public boolean isHandleRegistered(String handle) throws HandleException {
+        HandleMetrics metrics = HandleMetrics.current();
+        return metrics.time(Operation.IS_HANDLE_REGISTERED, () -> {
+            boolean[] resolved = new boolean[1];
+            boolean registered = resolutionCache.isRegistered(handle, h -> {
+                resolved[0] = true;
+                return resolveHandleRegistered(h);
+            });
+            metrics.addCacheLookup(!resolved[0]);
+            return registered;
+        });
+    }
 
-        //already checked?
-        if (lstCheckedHandles.contains(handle)) {
-            return true;
-        }
-
-        //otherwise check:
-        boolean handleRegistered = false;
-        ResolutionRequest req = buildResolutionRequest(handle);
+    /**
+     * Ask the handle server whether the handle is registered.
+     * 
+     * @return null if the server answered with an error. The handle then counts as registered, so that it is not created, but the answer is not
+     *         cached.
+     */
+    private Boolean resolveHandleRegistered(String handle) throws HandleException {
+        Boolean handleRegistered = false;
         AbstractResponse response = null;
         //        HandleResolver resolver = new HandleResolver();
         try {
-            response = resolver.processRequest(req);
+            response = processResolution(handle, null);
         } catch (HandleException ex) {
             log.error("Caught exception trying to process lookup request", ex);
             throw ex;
@@ -392,26 +865,21 @@ public class HandleClient {
             log.debug("Handle " + handle + " registered.");
             handleRegistered = true;
         }
-        if ((response != null && response.responseCode != AbstractMessage.RC_HANDLE_NOT_FOUND)) {
+        if ((response != null && response.responseCode != AbstractMessage.RC_SUCCESS
+                && response.responseCode != AbstractMessage.RC_HANDLE_NOT_FOUND)) {
             log.debug("Handle " + handle + " has error: " + response.responseCode);
-            handleRegistered = true;
-        }
-
-        //save, so do not need to call again:
-        if (handleRegistered) {
-            lstCheckedHandles.add(handle);
+            handleRegistered = null;
         }
 
         return handleRegistered;
     }
 
-    private ResolutionRequest buildResolutionRequest(final String handle) throws HandleException {
+    ResolutionRequest buildResolutionRequest(final String handle, int[] indexes) throws HandleException {
         //find auth info for the whole domain:
         String handlePrefix = handle.substring(0, handle.indexOf("/"));
         PublicKeyAuthenticationInfo auth = new PublicKeyAuthenticationInfo(Util.encodeString(handlePrefix), ADMIN_INDEX, privKey);
 
         byte[][] types = null;
-        int[] indexes = null;
         ResolutionRequest req = new ResolutionRequest(Util.encodeString(handle), types, indexes, auth);
         req.certify = false;
         req.cacheCertify = true;
@@ -420,11 +888,270 @@ public class HandleClient {
         return req;
     }
 
+    /**
+     * Resolve the handle. If hedging is enabled and the prefix is served by more than one site, a second request is sent to another site when
+     * the first one takes longer than 95% of the recent resolutions, and the first answer is used.
+     */
+    private AbstractResponse processResolution(String handle, int[] indexes) throws HandleException {
+        SiteInfo[] sites = hedgeResolution ? getSites(handle) : null;
+        if (sites == null || sites.length < 2) {
+            return processRequest(buildResolutionRequest(handle, indexes));
+        }
+
+        long start = System.nanoTime();
+        long deadline = resolveTimeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(resolveTimeout) : Long.MAX_VALUE;
+        int first = ThreadLocalRandom.current().nextInt(sites.length);
+        ExecutorCompletionService<AbstractResponse> completion = new ExecutorCompletionService<>(
+                virtualThreads ? VirtualRequestExecutor.INSTANCE : RequestExecutor.INSTANCE);
+        List<Future<AbstractResponse>> futures = new ArrayList<>(2);
+        futures.add(submitResolution(completion, handle, indexes, sites[first]));
+        try {
+            HandleException lastError = null;
+            int pending = 1;
+            long hedgeAt = start + getHedgeDelay();
+            while (pending > 0) {
+                boolean hedgeDue = futures.size() == 1;
+                long waitUntil = hedgeDue ? Math.min(hedgeAt, deadline) : deadline;
+                Future<AbstractResponse> done = completion.poll(Math.max(0, waitUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (hedgeDue && System.nanoTime() < deadline) {
+                        log.debug("Resolution of " + handle + " is slow, asking another site");
+                        futures.add(submitResolution(completion, handle, indexes, sites[(first + 1) % sites.length]));
+                        pending++;
+                        continue;
+                    }
+                    throw new HandleException(HandleException.CANNOT_CONNECT_TO_SERVER,
+                            "No answer resolving " + handle + " within " + resolveTimeout + " ms");
+                }
+                pending--;
+                try {
+                    AbstractResponse response = done.get();
+                    resolutionLatency.record(System.nanoTime() - start);
+                    HandleMetrics.current().addResponseCode(response.responseCode);
+                    return response;
+                } catch (ExecutionException e) {
+                    lastError = toHandleException(e.getCause());
+                    log.debug("Resolution of " + handle + " failed at one site: " + lastError.getMessage());
+                    if (futures.size() == 1 && System.nanoTime() < deadline) {
+                        //no need to wait for the hedge delay, the first site has failed already
+                        futures.add(submitResolution(completion, handle, indexes, sites[(first + 1) % sites.length]));
+                        pending++;
+                    }
+                }
+            }
+            throw lastError;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted while resolving " + handle);
+        } finally {
+            for (Future<AbstractResponse> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The sites serving the prefix of the handle, or null if they cannot be determined. They are taken from the site cache.
+     */
+    private SiteInfo[] getSites(String handle) {
+        return siteCache.get(getPrefix(handle), this::findSites);
+    }
+
+    /**
+     * Look up the sites of the prefix in the values of its prefix handle "0.NA/prefix" at the global handle registry, following a service
+     * handle (HS_SERV) to its sites. Null if the prefix handle has no sites.
+     */
+    SiteInfo[] findSites(String prefix) throws HandleException {
+        List<SiteInfo> sites = new ArrayList<>();
+        String serviceHandle = null;
+        for (HandleValue value : resolveSiteValues("0.NA/" + prefix)) {
+            if (HS_SITE.equals(value.getTypeAsString())) {
+                sites.add(decodeSite(value));
+            } else if (HS_SERV.equals(value.getTypeAsString()) && serviceHandle == null) {
+                serviceHandle = value.getDataAsString();
+            }
+        }
+        if (sites.isEmpty() && serviceHandle != null) {
+            for (HandleValue value : resolveSiteValues(serviceHandle)) {
+                if (HS_SITE.equals(value.getTypeAsString())) {
+                    sites.add(decodeSite(value));
+                }
+            }
+        }
+        return sites.isEmpty() ? null : sites.toArray(new SiteInfo[0]);
+    }
+
+    /**
+     * The HS_SITE and HS_SERV values of the handle. The request goes to the resolver directly, as sending it to a cached site would need the
+     * sites of the prefix "0.NA" first.
+     */
+    private HandleValue[] resolveSiteValues(String handle) throws HandleException {
+        ResolutionRequest request = new ResolutionRequest(Util.encodeString(handle),
+                new byte[][] { Util.encodeString(HS_SITE), Util.encodeString(HS_SERV) }, null, null);
+        request.certify = false;
+        request.authoritative = false;
+        AbstractResponse response = resolutionResolver.processRequest(request);
+        if (response.responseCode == AbstractMessage.RC_HANDLE_NOT_FOUND || response.responseCode == AbstractMessage.RC_VALUES_NOT_FOUND) {
+            return new HandleValue[0];
+        }
+        if (response.responseCode != AbstractMessage.RC_SUCCESS || !(response instanceof ResolutionResponse)) {
+            throw new HandleException(HandleException.INTERNAL_ERROR,
+                    "Could not look up the sites in " + handle + ": " + AbstractMessage.getResponseCodeMessage(response.responseCode));
+        }
+        return ((ResolutionResponse) response).getHandleValues();
+    }
+
+    private static SiteInfo decodeSite(HandleValue value) throws HandleException {
+        SiteInfo site = new SiteInfo();
+        Encoder.decodeSiteInfoRecord(value.getData(), 0, site);
+        return site;
+    }
+
+    private static String getPrefix(String handle) {
+        int slash = handle.indexOf('/');
+        return slash < 0 ? handle : handle.substring(0, slash);
+    }
+
+    /**
+     * The cached site to send the request to: the primary site for administrative requests, any site for resolutions. Null if the request is
+     * to be left to the resolver.
+     */
+    private SiteInfo chooseSite(AbstractRequest request, boolean resolution) {
+        if (!useCachedSites) {
+            return null;
+        }
+        SiteInfo[] sites = getSites(Util.decodeString(request.handle));
+        if (sites == null || sites.length == 0) {
+            return null;
+        }
+        if (resolution) {
+            return sites[ThreadLocalRandom.current().nextInt(sites.length)];
+        }
+        for (SiteInfo site : sites) {
+            if (site.isPrimary) {
+                return site;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The 95th percentile of recent resolution latencies in ns.
+     */
+    private long getHedgeDelay() {
+        if (resolutionLatency.getCount() < MIN_HEDGE_SAMPLES) {
+            return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY_MS);
+        }
+        return resolutionLatency.getPercentile(0.95);
+    }
+
+    private Future<AbstractResponse> submitResolution(ExecutorCompletionService<AbstractResponse> completion, String handle, int[] indexes,
+            SiteInfo site) {
+        //every attempt gets its own request object, the resolver changes it while sending. The overall deadline is watched by the caller.
+        return completion.submit(() -> {
+            ResolutionRequest request = buildResolutionRequest(handle, indexes);
+            return send(() -> resolutionResolver.sendRequestToSite(request, site), true);
+        });
+    }
+
+    /**
+     * Send a request to the handle server, giving up when the connection stays silent for longer than the TCP timeout.
+     */
+    private AbstractResponse processRequest(AbstractRequest request) throws HandleException {
+        if (batchFile != null) {
+            AbstractResponse response = batchFile.process(request);
+            recordResponse(request, response);
+            return response;
+        }
+        boolean resolution = request instanceof ResolutionRequest;
+        long start = System.nanoTime();
+        SiteInfo site = chooseSite(request, resolution);
+        HandleResolver target = resolution ? resolutionResolver : resolver;
+        AbstractResponse response;
+        if (site == null) {
+            response = send(() -> target.processRequest(request), resolution);
+        } else {
+            try {
+                response = send(() -> target.sendRequestToSite(request, site), resolution);
+            } catch (HandleException e) {
+                //the site may have moved, look it up again next time
+                siteCache.invalidate(getPrefix(Util.decodeString(request.handle)));
+                if (!resolution) {
+                    //an administrative request may have been carried out, sending it again could e.g. create a second handle
+                    throw e;
+                }
+                log.debug("Resolution at the cached site failed, asking the resolver: " + e.getMessage());
+                response = send(() -> target.processRequest(request), resolution);
+            }
+        }
+        recordResponse(request, response);
+        if (resolution) {
+            resolutionLatency.record(System.nanoTime() - start);
+        } else if (sessionStatistics != null) {
+            sessionStatistics.record(request.sessionId);
+        }
+        return response;
+    }
+
+    private void recordResponse(AbstractRequest request, AbstractResponse response) {
+        HandleMetrics metrics = HandleMetrics.current();
+        metrics.addResponseCode(response.responseCode);
+        if (request instanceof CreateHandleRequest && response.responseCode == AbstractMessage.RC_HANDLE_ALREADY_EXISTS) {
+            metrics.addCollision();
+        }
+    }
+
+    /**
+     * Send a request through the adaptive limiter, which decides how many may be in flight at the same time. The request is sent on the calling
+     * thread and holds its slot until the resolver returns; a request that gets no answer is ended by the TCP timeout of the resolver and counts
+     * as a failure.
+     * 
+     * @param resolution true for a resolution, false for an administrative request
+     */
+    private AbstractResponse send(Callable<AbstractResponse> call, boolean resolution) throws HandleException {
+        requestLimiter.acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            AbstractResponse response = call.call();
+            failed = response.responseCode == AbstractMessage.RC_SERVER_TOO_BUSY || response.responseCode == AbstractMessage.RC_ERROR;
+            return response;
+        } catch (Exception e) {
+            throw toHandleException(e);
+        } finally {
+            requestLimiter.release(System.nanoTime() - start, failed, resolution);
+        }
+    }
+
+    private static HandleException toHandleException(Throwable e) {
+        if (e instanceof HandleException) {
+            return (HandleException) e;
+        }
+        return new HandleException(HandleException.INTERNAL_ERROR, "Handle request failed: " + e.getMessage());
+    }
+
     /**
      * Restart the counter for suffixes
      */
     public void resetSuffix() {
-        this.iLastSuffix = -1;
+        lastSuffixesLock.lock();
+        try {
+            lastSuffixes.clear();
+        } finally {
+            lastSuffixesLock.unlock();
+        }
+    }
+
+    /**
+     * The counter of the last suffix tried for this stem. New stems start at -1, which stands for the stem itself.
+     */
+    private AtomicInteger getLastSuffix(String stem) {
+        lastSuffixesLock.lock();
+        try {
+            return lastSuffixes.computeIfAbsent(stem, s -> new AtomicInteger(-1));
+        } finally {
+            lastSuffixesLock.unlock();
+        }
     }
 
     /**
@@ -434,24 +1161,30 @@ public class HandleClient {
      * @return true if a handle was removed, false otherwise
      * @throws HandleException
      */
+    @Override
     public boolean remove(String handle) throws HandleException {
+        return HandleMetrics.current().time(Operation.REMOVE, () -> doRemove(handle));
+    }
+
+    private boolean doRemove(String handle) throws HandleException {
         // Create the request to send and the resolver to send it
         DeleteHandleRequest request = new DeleteHandleRequest(Util.encodeString(handle), authInfo);
 
-        HandleResolver resolver = new HandleResolver();
         AbstractResponse response;
 
         // Let the resolver process the request
-        response = resolver.processRequest(request);
+        response = processRequest(request);
 
         // Check the response to see if operation was successful
         if (response.responseCode == AbstractMessage.RC_SUCCESS) {
 
             log.info("Handle deleted: " + handle);
+            resolutionCache.put(handle, false);
             return true;
         } else if (response.responseCode == AbstractMessage.RC_HANDLE_NOT_FOUND) {
 
             log.info("Handle not found: " + handle);
+            resolutionCache.put(handle, false);
             return false;
         } else {
             throw new HandleException(HandleException.INTERNAL_ERROR, "Failed trying to delete a new handle at the server, response was" + response);
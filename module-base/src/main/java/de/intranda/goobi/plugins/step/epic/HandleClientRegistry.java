@@ -0,0 +1,250 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+import de.sub.goobi.config.ConfigPlugins;
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Process-wide pool of handle clients. Creating a client reads the private key and sets up the resolver, so a client is kept and reused by all
+ * step executions with the same effective configuration. The same holds for the other PID backends, e.g. the connections of the ePIC REST
+ * backend.
+ *
+ * A client is replaced when the configuration block or the certificate file changes. The replaced client is closed, and so is a client whose
+ * configuration block no longer exists, but only once the last step execution using it has released it.
+ */
+@Log4j2
+public final class HandleClientRegistry {
+
+    private static final Map<String, PooledClient> CLIENTS = new ConcurrentHashMap<>();
+    // the pooled client of each backend handed out, replaced ones included, to find it again on release
+    private static final Map<PidBackend, PooledClient> POOLED_BY_BACKEND = new ConcurrentHashMap<>();
+    // the key of the client each configuration block used last, by the project and step the block is selected by
+    private static final Map<String, String> KEYS_BY_BLOCK = new ConcurrentHashMap<>();
+    // clients are created one at a time, creating one reads the key file and sets up the resolver
+    private static final ReentrantLock CREATE_LOCK = new ReentrantLock();
+
+    private static class PooledClient {
+        private final String version;
+        private final PidBackend client;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+        private boolean replaced;
+
+        private PooledClient(String version, PidBackend client) {
+            this.version = version;
+            this.client = client;
+        }
+
+        /**
+         * Count a new user of the client.
+         *
+         * @return false if the client was replaced already and must not be used
+         */
+        private boolean acquire() {
+            lock.lock();
+            try {
+                if (replaced) {
+                    return false;
+                }
+                users++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            lock.lock();
+            try {
+                users--;
+                if (replaced && users == 0) {
+                    close(this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Mark the client as replaced, closing it at once if nobody uses it, otherwise when the last user releases it.
+         */
+        private void replace() {
+            lock.lock();
+            try {
+                replaced = true;
+                if (users == 0) {
+                    close(this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private HandleClientRegistry() {
+    }
+
+    /**
+     * Get the backend for the given configuration block, creating it if necessary. The returned backend can be used by several threads at the
+     * same time. It has to be released with release() when the step execution is finished.
+     */
+    public static PidBackend getBackend(SubnodeConfiguration config) throws HandleException, IOException {
+        String key = getConfigurationKey(config);
+        String version = getCertificateVersion(config);
+        String block = getBlockKey(config);
+        PooledClient pooled = CLIENTS.get(key);
+        if (pooled != null && pooled.version.equals(version) && key.equals(KEYS_BY_BLOCK.get(block)) && pooled.acquire()) {
+            return pooled.client;
+        }
+        CREATE_LOCK.lock();
+        try {
+            pooled = CLIENTS.get(key);
+            if (pooled == null || !pooled.version.equals(version)) {
+                if (pooled != null) {
+                    log.info("Certificate " + config.getString("certificate") + " has changed, creating a new handle client");
+                    replace(pooled);
+                }
+                pooled = new PooledClient(version, createBackend(config));
+                CLIENTS.put(key, pooled);
+                POOLED_BY_BACKEND.put(pooled.client, pooled);
+            }
+            String oldKey = KEYS_BY_BLOCK.put(block, key);
+            if (oldKey != null && !oldKey.equals(key) && !KEYS_BY_BLOCK.containsValue(oldKey)) {
+                // the configuration of the old client no longer exists
+                log.info("Configuration of the handle client for " + block + " has changed, closing the old client");
+                replace(CLIENTS.remove(oldKey));
+            }
+            // clients are only replaced while the lock is held, so this one is still in use
+            pooled.acquire();
+            return pooled.client;
+        } finally {
+            CREATE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Give back a backend got from getBackend(). A replaced backend is closed when its last user gives it back.
+     */
+    public static void release(PidBackend backend) {
+        PooledClient pooled = backend == null ? null : POOLED_BY_BACKEND.get(backend);
+        if (pooled != null) {
+            pooled.release();
+        }
+    }
+
+    private static void replace(PooledClient pooled) {
+        if (pooled != null) {
+            pooled.replace();
+        }
+    }
+
+    /**
+     * Create the clients for all configuration blocks of the plugin in the background, so that the first step execution does not have to wait
+     * for it.
+     */
+    public static void warmUp(String pluginTitle) {
+        Thread thread = new Thread(() -> {
+            try {
+                XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(pluginTitle);
+                xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+                for (HierarchicalConfiguration config : xmlConfig.configurationsAt("//config")) {
+                    try {
+                        release(getBackend((SubnodeConfiguration) config));
+                    } catch (Exception e) {
+                        // not fatal, the client is created on first use then and the error is reported to the step
+                        log.warn("Could not prepare the handle client for " + getBlockKey((SubnodeConfiguration) config) + ": " + e.getMessage());
+                    }
+                }
+                log.debug("Handle clients prepared: " + CLIENTS.size());
+            } catch (Exception e) {
+                // not fatal, the clients are created on first use then
+                log.warn("Could not prepare handle clients: " + e.getMessage());
+            }
+        }, "epic-pid-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static PidBackend createBackend(SubnodeConfiguration config) throws HandleException, IOException {
+        String backend = config.getString("backend", "handle");
+        if ("epicRest".equalsIgnoreCase(backend)) {
+            return new EpicRestBackend(config);
+        }
+        if (!"handle".equalsIgnoreCase(backend)) {
+            log.warn("Unknown PID backend '" + backend + "', using the handle protocol");
+        }
+        return new HandleClient(config);
+    }
+
+    private static void close(PooledClient pooled) {
+        POOLED_BY_BACKEND.remove(pooled.client);
+        try {
+            pooled.client.close();
+        } catch (RuntimeException e) {
+            log.warn("Could not close the replaced handle client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close and forget all clients, e.g. for tests. Clients still in use are closed when they are released.
+     */
+    public static void clear() {
+        CREATE_LOCK.lock();
+        try {
+            CLIENTS.values().forEach(HandleClientRegistry::replace);
+            CLIENTS.clear();
+            KEYS_BY_BLOCK.clear();
+        } finally {
+            CREATE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * The project and step values, which select the configuration block. A block with a batch file, like the copy of a bulk registration,
+     * counts as a block of its own, so that it does not replace the client of the regular step executions.
+     */
+    private static String getBlockKey(SubnodeConfiguration config) {
+        String block = "project=" + config.getList("project") + ", step=" + config.getList("step");
+        String batchFile = config.getString("batchFile", "");
+        return batchFile.isEmpty() ? block : block + ", batchFile=" + batchFile;
+    }
+
+    /**
+     * All values of the configuration block apart from project and step, which only select the block.
+     */
+    private static String getConfigurationKey(SubnodeConfiguration config) {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> iterator = config.getKeys();
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        Collections.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (!"project".equals(key) && !"step".equals(key)) {
+                sb.append(key).append('=').append(config.getList(key)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getCertificateVersion(SubnodeConfiguration config) {
+        File certificate = new File(config.getString("certificate", ""));
+        return certificate.lastModified() + "/" + certificate.length();
+    }
+}
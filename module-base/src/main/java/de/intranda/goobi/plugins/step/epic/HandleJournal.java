@@ -0,0 +1,226 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Append-only record of the handles minted for the elements of one METS file, written before the run moves on to the next element. If the run
+ * fails before the METS file is saved, the next run takes the handles from the journal instead of minting new ones, so that no handles are
+ * left behind on the server.
+ *
+ * A handle named by a naming strategy is reserved in the journal before it is created, so that the next run knows that an existing handle of
+ * that name is its own, even if the run stopped before the handle was recorded. If the handle turns out to belong to another element, the
+ * reservation is released again.
+ *
+ * Elements are identified by their path in the structure tree, e.g. "physical/12" for the 13th page. The journal remembers size and modification
+ * time of the METS file it was started for, and is discarded if the file was changed in the meantime, because the paths may no longer match.
+ */
+@Log4j2
+public class HandleJournal implements AutoCloseable {
+
+    private static final String HEADER = "# ";
+    private static final char SEPARATOR = '\t';
+    private static final String RESERVED = SEPARATOR + "reserved";
+    private static final String RELEASED = SEPARATOR + "released";
+
+    private final Path file;
+    private final Map<String, String> handles = new HashMap<>();
+    private final Map<String, String> reservedHandles = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // not a FileChannel: an interrupted worker would close it for all other workers of the run
+    private FileOutputStream out;
+
+    /**
+     * Open the journal for the METS file, with the handles of an earlier run if there are any.
+     */
+    public static HandleJournal open(Path file, Path metsFile) throws IOException {
+        HandleJournal journal = new HandleJournal(file);
+        String header = HEADER + Files.size(metsFile) + " " + Files.getLastModifiedTime(metsFile).toMillis();
+        if (Files.exists(file) && !journal.load(header)) {
+            log.warn("The METS file was changed since the handle journal " + file + " was written, discarding the journal");
+            Files.delete(file);
+        }
+        boolean created = !Files.exists(file);
+        journal.out = new FileOutputStream(file.toFile(), true);
+        if (created) {
+            journal.append(header);
+        } else if (!journal.handles.isEmpty()) {
+            log.info("Found " + journal.handles.size() + " handles of an unfinished run in " + file);
+        }
+        return journal;
+    }
+
+    private HandleJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the entries of the journal, if it belongs to the current METS file.
+     */
+    private boolean load(String header) throws IOException {
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        // a line without line break was cut off by a crash while it was written, its handle was never used
+        int end = content.lastIndexOf('\n') + 1;
+        String[] lines = content.substring(0, end).split("\n");
+        if (!header.equals(lines[0])) {
+            return false;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int separator = lines[i].indexOf(SEPARATOR);
+            if (separator > 0 && lines[i].endsWith(RELEASED)) {
+                reservedHandles.remove(lines[i].substring(0, separator));
+            } else if (separator > 0 && lines[i].endsWith(RESERVED)) {
+                reservedHandles.put(lines[i].substring(0, separator), lines[i].substring(separator + 1, lines[i].length() - RESERVED.length()));
+            } else if (separator > 0) {
+                handles.put(lines[i].substring(0, separator), lines[i].substring(separator + 1));
+            }
+        }
+        if (end < content.length()) {
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(content.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the handle minted for the element by an earlier run, or null if there is none
+     */
+    public String getHandle(String path) {
+        lock.lock();
+        try {
+            return handles.get(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the handle reserved for the element by an earlier run, which may or may not have been created, or null if there is none
+     */
+    public String getReservedHandle(String path) {
+        lock.lock();
+        try {
+            return reservedHandles.get(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creation of a handle named by a naming strategy.
+     */
+    @FunctionalInterface
+    public interface NamedCreation {
+        /**
+         * @param reservedHandle the handle an earlier run reserved for the element, null if there is none
+         * @return the created handle
+         */
+        String create(String reservedHandle) throws HandleException;
+    }
+
+    /**
+     * Create the handle a naming strategy gives the element and record it. The name is reserved before the handle is created. If the handle
+     * exists already and belongs to another element, the reservation is released, so that the next run does not take the handle over.
+     */
+    public String createNamed(String path, String namedHandle, NamedCreation creation) throws HandleException, IOException {
+        String reservedHandle = getReservedHandle(path);
+        if (!namedHandle.equals(reservedHandle)) {
+            reserve(path, namedHandle);
+        }
+        String handle;
+        try {
+            handle = creation.create(reservedHandle);
+        } catch (HandleException e) {
+            if (e.getCode() == HandleException.HANDLE_ALREADY_EXISTS) {
+                release(path, namedHandle);
+            }
+            throw e;
+        }
+        record(path, handle);
+        return handle;
+    }
+
+    /**
+     * Reserve the name of a handle for the element before it is created. The entry is on disk when the method returns.
+     */
+    public void reserve(String path, String handle) throws IOException {
+        lock.lock();
+        try {
+            reservedHandles.put(path, handle);
+            append(path + SEPARATOR + handle + RESERVED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the reservation of a handle that was not created for the element. The entry is on disk when the method returns.
+     */
+    public void release(String path, String handle) throws IOException {
+        lock.lock();
+        try {
+            reservedHandles.remove(path);
+            append(path + SEPARATOR + handle + RELEASED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record a minted handle. The entry is on disk when the method returns.
+     */
+    public void record(String path, String handle) throws IOException {
+        lock.lock();
+        try {
+            handles.put(path, handle);
+            append(path + SEPARATOR + handle);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+    }
+
+    /**
+     * Remove the journal once the handles are saved in the METS file.
+     */
+    public void delete() throws IOException {
+        lock.lock();
+        try {
+            close();
+            handles.clear();
+            reservedHandles.clear();
+            Files.deleteIfExists(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Striped locks for the step executions of this JVM. Runs for the same process or for the same identifier are serialised, unrelated runs can
+ * proceed in parallel. Two keys may share a stripe, which only means that they wait for each other.
+ *
+ * The process lock is always acquired before the identifier lock, and never the other way round.
+ */
+@Log4j2
+public final class HandleLocks {
+
+    private static final int STRIPES = 64;
+
+    private static final ReentrantLock[] PROCESS_LOCKS = createStripes();
+    private static final ReentrantLock[] IDENTIFIER_LOCKS = createStripes();
+
+    private static final LongAdder ACQUISITIONS = new LongAdder();
+    private static final LongAdder WAIT_NANOS = new LongAdder();
+    private static final LongAccumulator MAX_WAIT_NANOS = new LongAccumulator(Math::max, 0);
+
+    private HandleLocks() {
+    }
+
+    private static ReentrantLock[] createStripes() {
+        ReentrantLock[] locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * Lock the METS file of a process for reading, registering and writing.
+     */
+    public static Lock lockProcess(Integer processId) {
+        return lock(PROCESS_LOCKS, String.valueOf(processId));
+    }
+
+    /**
+     * Lock the handle registration for an identifier, so that no two runs mint suffixes for the same handle stem at the same time.
+     */
+    public static Lock lockIdentifier(String identifier) {
+        return lock(IDENTIFIER_LOCKS, String.valueOf(identifier));
+    }
+
+    private static Lock lock(ReentrantLock[] stripes, String key) {
+        Lock lock = stripes[Math.floorMod(key.hashCode(), STRIPES)];
+        long start = System.nanoTime();
+        lock.lock();
+        long waited = System.nanoTime() - start;
+        ACQUISITIONS.increment();
+        WAIT_NANOS.add(waited);
+        MAX_WAIT_NANOS.accumulate(waited);
+        if (waited > TimeUnit.SECONDS.toNanos(1)) {
+            log.debug("Waited " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for the lock of " + key);
+        }
+        return lock;
+    }
+
+    public static long getLockCount() {
+        return ACQUISITIONS.sum();
+    }
+
+    public static long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(WAIT_NANOS.sum());
+    }
+
+    public static long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(MAX_WAIT_NANOS.get());
+    }
+}
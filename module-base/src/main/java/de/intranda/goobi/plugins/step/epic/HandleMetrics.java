@@ -0,0 +1,335 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.AbstractMessage;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Timers and counters of the handle operations of one project, registered as MXBean under
+ * "de.intranda.goobi.plugins.step.epic:type=HandleMetrics,project=...".
+ *
+ * Handle clients are shared by all projects, so the client records into the metrics of the current thread. A step run activates the metrics of
+ * its project; HandleTaskExecutor passes them on to its worker threads. Work outside of a run is counted for the project "default".
+ */
+@Log4j2
+public class HandleMetrics implements HandleMetricsMXBean {
+
+    /**
+     * The timed operations of HandleClient.
+     */
+    public enum Operation {
+        NEW_URL_HANDLE("newURLHandle"),
+        CHANGE_HANDLE_URL("changeHandleURL"),
+        UPDATE_HANDLE("updateHandle"),
+        IS_HANDLE_REGISTERED("isHandleRegistered"),
+        REMOVE("remove");
+
+        private final String methodName;
+
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+    }
+
+    /**
+     * A call to the handle server.
+     */
+    @FunctionalInterface
+    public interface HandleCall<T> {
+        T call() throws HandleException;
+    }
+
+    /**
+     * Restores the metrics that were active before, when closed.
+     */
+    public static class Scope implements AutoCloseable {
+        private final Context previous;
+
+        private Scope(Context previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * The metrics of the current thread and the summary of the run it works for, if any.
+     */
+    private static class Context {
+        private final HandleMetrics metrics;
+        private final RegistrationSummary run;
+
+        private Context(HandleMetrics metrics, RegistrationSummary run) {
+            this.metrics = metrics;
+            this.run = run;
+        }
+    }
+
+    private static final String DEFAULT_PROJECT = "default";
+    private static final Map<String, HandleMetrics> PROJECTS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Context> CURRENT = ThreadLocal.withInitial(() -> new Context(forProject(DEFAULT_PROJECT), null));
+
+    private final String project;
+    private final Map<Operation, OperationTimer> timers = new ConcurrentHashMap<>();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder suffixProbes = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final Map<Integer, LongAdder> responseCodes = new ConcurrentHashMap<>();
+
+    private HandleMetrics(String project) {
+        this.project = project;
+        for (Operation operation : Operation.values()) {
+            timers.put(operation, new OperationTimer());
+        }
+    }
+
+    /**
+     * Get the metrics of the project, registering them over JMX on first use.
+     */
+    public static HandleMetrics forProject(String project) {
+        String name = project == null || project.isBlank() ? DEFAULT_PROJECT : project;
+        return PROJECTS.computeIfAbsent(name, p -> {
+            HandleMetrics metrics = new HandleMetrics(p);
+            try {
+                ObjectName objectName = new ObjectName("de.intranda.goobi.plugins.step.epic:type=HandleMetrics,project=" + ObjectName.quote(p));
+                if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+                }
+            } catch (JMException e) {
+                // not fatal, the metrics are still counted
+                log.warn("Could not register the handle metrics of project " + p + ": " + e.getMessage());
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * The metrics active on this thread.
+     */
+    public static HandleMetrics current() {
+        return CURRENT.get().metrics;
+    }
+
+    /**
+     * Make these the metrics of the current thread until the returned scope is closed.
+     */
+    public Scope activate() {
+        return activate(null);
+    }
+
+    /**
+     * Make these the metrics of the current thread until the returned scope is closed, and count the round trips to the handle server in the
+     * summary of the run.
+     */
+    public Scope activate(RegistrationSummary run) {
+        return activate(new Context(this, run));
+    }
+
+    private static Scope activate(Context context) {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(context);
+        return scope;
+    }
+
+    /**
+     * Wrap the task so that it records into the metrics and run of the calling thread, wherever it is run.
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Context context = CURRENT.get();
+        return () -> {
+            try (Scope scope = activate(context)) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * Run the call and record its duration for the operation.
+     */
+    public <T> T time(Operation operation, HandleCall<T> call) throws HandleException {
+        long start = System.nanoTime();
+        boolean failedCall = true;
+        try {
+            T result = call.call();
+            failedCall = false;
+            return result;
+        } finally {
+            timers.get(operation).record(System.nanoTime() - start, failedCall);
+        }
+    }
+
+    public void addSuffixProbe() {
+        suffixProbes.increment();
+    }
+
+    public void addCollision() {
+        collisions.increment();
+    }
+
+    public void addCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+    }
+
+    /**
+     * Count an answer of the handle server, for the project and for the run of the current thread.
+     */
+    public void addResponseCode(int responseCode) {
+        responseCodes.computeIfAbsent(responseCode, c -> new LongAdder()).increment();
+        RegistrationSummary run = CURRENT.get().run;
+        if (run != null) {
+            run.addRoundTrip();
+        }
+    }
+
+    /**
+     * Add the counts of a finished run.
+     */
+    public void addSummary(RegistrationSummary summary) {
+        created.add(summary.getCreated());
+        updated.add(summary.getUpdated());
+        unchanged.add(summary.getUnchanged());
+        skipped.add(summary.getSkipped());
+        failed.add(summary.getFailed());
+    }
+
+    @Override
+    public String getProject() {
+        return project;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        return collect(OperationTimer::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getOperationFailures() {
+        return collect(OperationTimer::getFailures);
+    }
+
+    @Override
+    public Map<String, Double> getOperationMeanMillis() {
+        return collect(OperationTimer::getMeanMillis);
+    }
+
+    @Override
+    public Map<String, Double> getOperationP95Millis() {
+        return collect(OperationTimer::getP95Millis);
+    }
+
+    @Override
+    public Map<String, Double> getOperationMaxMillis() {
+        return collect(OperationTimer::getMaxMillis);
+    }
+
+    private <V> Map<String, V> collect(Function<OperationTimer, V> value) {
+        Map<String, V> values = new TreeMap<>();
+        timers.forEach((operation, timer) -> values.put(operation.methodName, value.apply(timer)));
+        return values;
+    }
+
+    @Override
+    public long getHandlesCreated() {
+        return created.sum();
+    }
+
+    @Override
+    public long getHandlesUpdated() {
+        return updated.sum();
+    }
+
+    @Override
+    public long getHandlesUnchanged() {
+        return unchanged.sum();
+    }
+
+    @Override
+    public long getHandlesSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getHandlesFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getSuffixProbes() {
+        return suffixProbes.sum();
+    }
+
+    @Override
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public Map<String, Long> getResponseCodes() {
+        Map<String, Long> counts = new TreeMap<>();
+        responseCodes.forEach((code, count) -> counts.put(AbstractMessage.getResponseCodeMessage(code), count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return HandleLocks.getLockCount();
+    }
+
+    @Override
+    public long getLockWaitMillis() {
+        return HandleLocks.getTotalWaitMillis();
+    }
+
+    @Override
+    public long getMaxLockWaitMillis() {
+        return HandleLocks.getMaxWaitMillis();
+    }
+
+    @Override
+    public Map<String, Integer> getRequestLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        AdaptiveRequestLimiter.getLimiters().forEach((server, limiter) -> limits.put(server, limiter.getLimit()));
+        return limits;
+    }
+
+    @Override
+    public Map<String, Integer> getRequestsInFlight() {
+        Map<String, Integer> inFlight = new TreeMap<>();
+        AdaptiveRequestLimiter.getLimiters().forEach((server, limiter) -> inFlight.put(server, limiter.getInFlight()));
+        return inFlight;
+    }
+}
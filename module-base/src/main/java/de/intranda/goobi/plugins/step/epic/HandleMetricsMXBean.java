@@ -0,0 +1,52 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.Map;
+
+/**
+ * Handle operations of one project, as published over JMX. Operation values are keyed by the name of the HandleClient method. The lock and
+ * request limit values are the same for all projects.
+ */
+public interface HandleMetricsMXBean {
+
+    String getProject();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Long> getOperationFailures();
+
+    Map<String, Double> getOperationMeanMillis();
+
+    Map<String, Double> getOperationP95Millis();
+
+    Map<String, Double> getOperationMaxMillis();
+
+    long getHandlesCreated();
+
+    long getHandlesUpdated();
+
+    long getHandlesUnchanged();
+
+    long getHandlesSkipped();
+
+    long getHandlesFailed();
+
+    long getSuffixProbes();
+
+    long getCollisions();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    Map<String, Long> getResponseCodes();
+
+    long getLockAcquisitions();
+
+    long getLockWaitMillis();
+
+    long getMaxLockWaitMillis();
+
+    Map<String, Integer> getRequestLimits();
+
+    Map<String, Integer> getRequestsInFlight();
+}
@@ -0,0 +1,82 @@
+package de.intranda.goobi.plugins.step.epic;
+
+/**
+ * Decides the name of a new handle. The handle consists of the stem "base/postfix" + object ID and a suffix chosen by the strategy.
+ *
+ * A strategy that derives the suffix from the element alone needs no existence check, the handle is created with a single request. If the
+ * server already knows the handle, it was created for another element, e.g. for the page that had the same order before a page was inserted,
+ * and the run fails. Only a handle the journal of an unfinished run reserved for the same element is taken as it is. Returning null instead
+ * leaves the choice to the client, which then searches the first free numbered suffix at the server.
+ *
+ * Further strategies can be configured with their class name. They need a public constructor without arguments and are shared by all threads.
+ */
+public interface HandleNamingStrategy {
+
+    /**
+     * @return the suffix for the element, appended to the stem with the separator, an empty string for the stem itself, or null to mint the
+     *         first free numbered suffix
+     */
+    String getSuffix(Element element);
+
+    /**
+     * What a naming strategy may know about an element. Only the information available for the element is set.
+     */
+    final class Element {
+
+        /**
+         * Path of the top element of the logical tree.
+         */
+        public static final String LOGICAL_ROOT = "logical";
+        /**
+         * Path of the top element of the physical tree.
+         */
+        public static final String PHYSICAL_ROOT = "physical";
+
+        private final String path;
+        private final String metsId;
+        private final Integer order;
+        private final String type;
+        private final String journaledHandle;
+
+        /**
+         * @param path position in the structure tree, e.g. "physical/12" for the 13th page
+         * @param metsId the ID of the element in the METS file, e.g. "PHYS_0013"
+         * @param order the physical order of a page, starting with 1
+         * @param type the name of the structure type, e.g. "page"
+         */
+        public Element(String path, String metsId, Integer order, String type) {
+            this(path, metsId, order, type, null);
+        }
+
+        /**
+         * @param journaledHandle the handle the journal of an earlier, unfinished run reserved for the element, which may exist at the server
+         */
+        public Element(String path, String metsId, Integer order, String type, String journaledHandle) {
+            this.path = path;
+            this.metsId = metsId;
+            this.order = order;
+            this.type = type;
+            this.journaledHandle = journaledHandle;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMetsId() {
+            return metsId;
+        }
+
+        public Integer getOrder() {
+            return order;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getJournaledHandle() {
+            return journaledHandle;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Runs handle requests with a bounded number of requests in flight. Results are returned in the order in which the tasks were submitted,
+ * independent of the order in which the handle server answers.
+ *
+ * The tasks run either on a fixed pool of platform threads or each on its own virtual thread, with a semaphore bounding how many of them run
+ * at the same time. A virtual thread waiting for the handle server does not hold on to an operating system thread, so a large number of
+ * pending requests costs little memory and no context switches.
+ */
+@Log4j2
+public class HandleTaskExecutor implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    @Getter
+    private final int maxParallelRequests;
+    @Getter
+    private final boolean virtualThreads;
+    private final ExecutorService executor;
+    // bounds the virtual threads, the pool of platform threads is bounded by its size
+    private final Semaphore permits;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taskDone = lock.newCondition();
+    private final Set<Future<?>> failedTasks = ConcurrentHashMap.newKeySet();
+
+    public HandleTaskExecutor(int maxParallelRequests) {
+        this(maxParallelRequests, false);
+    }
+
+    /**
+     * @param virtualThreads true to run each task on its own virtual thread instead of a pool of platform threads
+     */
+    public HandleTaskExecutor(int maxParallelRequests, boolean virtualThreads) {
+        this.maxParallelRequests = Math.max(1, maxParallelRequests);
+        this.virtualThreads = virtualThreads;
+        if (virtualThreads) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("epic-pid-virtual-", 0).factory());
+            this.permits = new Semaphore(this.maxParallelRequests);
+        } else {
+            this.executor = Executors.newFixedThreadPool(this.maxParallelRequests, r -> {
+                Thread thread = new Thread(r, "epic-pid-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.permits = null;
+        }
+    }
+
+    /**
+     * Queue a task. It is started as soon as one of the request slots is free, and records into the handle metrics of the calling thread.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        Callable<T> propagated = HandleMetrics.propagate(task);
+        TrackedTask<T> future = new TrackedTask<>(permits == null ? propagated : () -> callWithPermit(propagated));
+        executor.execute(future);
+        return future;
+    }
+
+    private <T> T callWithPermit(Callable<T> task) throws Exception {
+        permits.acquire();
+        try {
+            return task.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wait for all given tasks and return their results in submission order. As soon as one of the tasks fails, the remaining ones are cancelled
+     * and the error is thrown, without waiting for the tasks submitted before it.
+     */
+    public <T> List<T> awaitAll(List<Future<T>> futures) throws HandleException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            Future<?> failed = awaitCompletion(futures);
+            if (failed != null) {
+                cancelAll(futures);
+                failed.get();
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(futures);
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted while waiting for the handle server");
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof HandleException) {
+                throw (HandleException) cause;
+            }
+            log.error(cause.getMessage(), cause);
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Handle request failed: " + cause.getMessage());
+        }
+        return results;
+    }
+
+    /**
+     * Wait for all given tasks and return their results in submission order. Unlike awaitAll(), a failed task does not stop the others: its
+     * error is logged and its result is null.
+     */
+    public <T> List<T> awaitEach(List<Future<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll(futures);
+                log.error("Interrupted while waiting for the handle server");
+                while (results.size() < futures.size()) {
+                    results.add(null);
+                }
+                return results;
+            } catch (ExecutionException e) {
+                log.error(e.getCause().getMessage(), e.getCause());
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Wait until all tasks are done or one of them has failed.
+     *
+     * @return the failed task, or null if all tasks are done
+     */
+    private Future<?> awaitCompletion(List<? extends Future<?>> futures) throws InterruptedException {
+        Set<Future<?>> group = Collections.newSetFromMap(new IdentityHashMap<>());
+        group.addAll(futures);
+        int next = 0;
+        lock.lock();
+        try {
+            while (true) {
+                for (Future<?> failed : failedTasks) {
+                    if (group.contains(failed)) {
+                        return failed;
+                    }
+                }
+                while (next < futures.size() && futures.get(next).isDone()) {
+                    next++;
+                }
+                if (next == futures.size()) {
+                    return null;
+                }
+                taskDone.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A task that reports when it is done, so that awaitAll() can react to the first failure instead of waiting for the tasks in order.
+     */
+    private class TrackedTask<T> extends FutureTask<T> {
+
+        private TrackedTask(Callable<T> task) {
+            super(task);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failedTasks.add(this);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            lock.lock();
+            try {
+                taskDone.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
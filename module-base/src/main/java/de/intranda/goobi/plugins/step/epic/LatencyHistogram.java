@@ -0,0 +1,109 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the latencies of the most recent requests and calculates percentiles over them. The percentiles are calculated from a sorted copy of the
+ * samples, which is only made again after the given number of new samples.
+ */
+public class LatencyHistogram {
+
+    private final long[] samples;
+    private final int refreshInterval;
+    private int next;
+    private int count;
+    // number of samples recorded so far, and when the sorted copy was made
+    private long recorded;
+    private long sortedAt;
+    private long[] sorted;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param size number of recent samples to keep
+     */
+    public LatencyHistogram(int size) {
+        this(size, 1);
+    }
+
+    /**
+     * @param size number of recent samples to keep
+     * @param refreshInterval number of new samples after which the percentiles are calculated again
+     */
+    public LatencyHistogram(int size, int refreshInterval) {
+        this.samples = new long[size];
+        this.refreshInterval = Math.max(1, refreshInterval);
+    }
+
+    /**
+     * Add a latency in ns.
+     */
+    public void record(long latency) {
+        lock.lock();
+        try {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+            recorded++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCount() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The latency in ns below which the given share of the recent requests finished, e.g. 0.95 for the 95th percentile. Returns -1 if there are
+     * no samples yet.
+     */
+    public long getPercentile(double percentile) {
+        long[] values = getSorted();
+        if (values == null) {
+            return -1;
+        }
+        int index = (int) Math.ceil(percentile * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+
+    /**
+     * The sorted samples, null if there are none yet.
+     */
+    private long[] getSorted() {
+        long[] copy;
+        long copiedAt;
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            if (sorted != null && recorded - sortedAt < refreshInterval) {
+                return sorted;
+            }
+            copy = Arrays.copyOf(samples, count);
+            copiedAt = recorded;
+        } finally {
+            lock.unlock();
+        }
+        // sort outside of the lock, recording must not wait for it
+        Arrays.sort(copy);
+        lock.lock();
+        try {
+            if (sorted == null || copiedAt > sortedAt) {
+                sorted = copy;
+                sortedAt = copiedAt;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return copy;
+    }
+}
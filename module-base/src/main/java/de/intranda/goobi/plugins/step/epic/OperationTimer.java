@@ -0,0 +1,57 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls of one operation and how long they took.
+ */
+public class OperationTimer {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LatencyHistogram recent = new LatencyHistogram(1000, 50);
+
+    /**
+     * @param nanos duration of the call
+     * @param failed true if the call threw an exception
+     */
+    public void record(long nanos, boolean failed) {
+        count.increment();
+        if (failed) {
+            failures.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        recent.record(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public double getMeanMillis() {
+        long calls = count.sum();
+        return calls == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / calls;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * 95th percentile of the most recent calls.
+     */
+    public double getP95Millis() {
+        return Math.max(0, recent.getPercentile(0.95)) / NANOS_PER_MILLI;
+    }
+}
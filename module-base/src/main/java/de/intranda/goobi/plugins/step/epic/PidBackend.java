@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.IOException;
+
+import net.handle.hdllib.HandleException;
+import ugh.dl.DocStruct;
+
+/**
+ * The service the step plugin registers its handles at. A backend is shared by all step executions with the same configuration and must be safe
+ * to use from several threads.
+ *
+ * The backend is chosen with the configuration value "backend": "handle" (default) speaks the native handle protocol with HandleClient,
+ * "epicRest" uses the ePIC REST API with EpicRestBackend.
+ */
+public interface PidBackend {
+
+    /**
+     * Result of updating the URL of an existing handle.
+     */
+    enum UpdateResult {
+        UPDATED,
+        UNCHANGED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * Make a handle "base/postfix + objectId" for the element, pointing to its URL, and return it.
+     *
+     * @param element what the naming strategy may use, null to always search a free suffix
+     */
+    String makeURLHandleForObject(String objectId, String postfix, DocStruct docstruct, HandleNamingStrategy.Element element)
+            throws HandleException;
+
+    /**
+     * The handle the naming strategy gives the element, "base/postfix + objectId" with its suffix, or null if the strategy leaves the choice to
+     * the backend.
+     */
+    String getNamedHandle(String objectId, String postfix, HandleNamingStrategy.Element element);
+
+    /**
+     * Point the existing handle to its URL again, as far as the configuration asks for it.
+     */
+    UpdateResult updateURLHandleForObject(String handle, String postfix, DocStruct docstruct) throws HandleException;
+
+    /**
+     * Remove a handle.
+     *
+     * @return true if a handle was removed, false if it did not exist
+     */
+    boolean remove(String handle) throws HandleException;
+
+    /**
+     * Make sure all registrations so far are durable. Called before the handles are saved in the METS file.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Called when a run is finished, successfully or not.
+     */
+    default void runFinished() {
+    }
+
+    /**
+     * Release the resources of the backend, e.g. connections and temporary files. Called when the backend is replaced because its configuration
+     * or certificate has changed or no longer exists. Requests that are running already are finished, new ones may fail.
+     */
+    default void close() {
+    }
+}
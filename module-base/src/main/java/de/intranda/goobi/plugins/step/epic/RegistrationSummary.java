@@ -0,0 +1,140 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+import de.intranda.goobi.plugins.step.epic.PidBackend.UpdateResult;
+
+/**
+ * Counts what happened to the handles of one run, how many requests were sent to the handle server and how long the phases of the run took.
+ * The counters can be updated from several threads.
+ */
+public class RegistrationSummary {
+
+    /**
+     * The phases of a run: reading the METS file, talking to the handle server and writing the METS file.
+     */
+    public enum Phase {
+        READ,
+        REGISTER,
+        WRITE
+    }
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final Map<Phase, Long> phaseNanos = new ConcurrentHashMap<>();
+
+    public void addCreated() {
+        created.increment();
+    }
+
+    /**
+     * Count a handle that an earlier, unfinished run minted and that is now used from the journal.
+     */
+    public void addRecovered() {
+        recovered.increment();
+    }
+
+    public void addUpdate(UpdateResult result) {
+        switch (result) {
+            case UPDATED:
+                updated.increment();
+                break;
+            case UNCHANGED:
+                unchanged.increment();
+                break;
+            case SKIPPED:
+                skipped.increment();
+                break;
+            default:
+                failed.increment();
+                break;
+        }
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getRecovered() {
+        return recovered.sum();
+    }
+
+    public long getUpdated() {
+        return updated.sum();
+    }
+
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public void addRoundTrip() {
+        roundTrips.increment();
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    public void setPhaseTime(Phase phase, long nanos) {
+        phaseNanos.put(phase, nanos);
+    }
+
+    /**
+     * Duration of the phase in ms, 0 if it did not run.
+     */
+    public long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.getOrDefault(phase, 0L));
+    }
+
+    /**
+     * Counts and timings as a single line for the process journal.
+     */
+    public String getReport() {
+        return toString() + "; round trips: " + getRoundTrips() + "; read: " + getPhaseMillis(Phase.READ) + " ms, register: "
+                + getPhaseMillis(Phase.REGISTER) + " ms, write: " + getPhaseMillis(Phase.WRITE) + " ms";
+    }
+
+    /**
+     * Counts and timings as JSON object, for evaluating the log over many processes.
+     */
+    public String toJson(Integer processId, String identifier) {
+        JsonObject json = new JsonObject();
+        json.addProperty("processId", processId);
+        json.addProperty("identifier", identifier);
+        json.addProperty("created", getCreated());
+        json.addProperty("recovered", getRecovered());
+        json.addProperty("updated", getUpdated());
+        json.addProperty("unchanged", getUnchanged());
+        json.addProperty("skipped", getSkipped());
+        json.addProperty("failed", getFailed());
+        json.addProperty("roundTrips", getRoundTrips());
+        for (Phase phase : Phase.values()) {
+            json.addProperty(phase.name().toLowerCase() + "Millis", getPhaseMillis(phase));
+        }
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "created: " + getCreated() + ", recovered: " + getRecovered() + ", updated: " + getUpdated() + ", unchanged: " + getUnchanged()
+                + ", skipped: " + getSkipped() + ", failed: " + getFailed();
+    }
+}
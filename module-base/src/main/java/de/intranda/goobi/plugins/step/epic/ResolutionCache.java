@@ -0,0 +1,225 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Cache for the results of existence checks at the handle server, shared by all clients. It remembers registered handles as well as handles
+ * that were not found, each for a limited time, and holds at most a fixed number of entries, evicting the least recently used one first.
+ *
+ * Concurrent lookups of the same handle are merged into a single request to the server.
+ */
+@Log4j2
+public class ResolutionCache {
+
+    private static final ResolutionCache INSTANCE = new ResolutionCache();
+
+    /**
+     * Existence check at the handle server.
+     */
+    @FunctionalInterface
+    public interface Lookup {
+        /**
+         * @return whether the handle is registered, or null if the server gave no clear answer. The handle then counts as registered, but the
+         *         answer is not cached.
+         */
+        Boolean isRegistered(String handle) throws HandleException;
+    }
+
+    private static class Entry {
+        private final boolean registered;
+        private final long expires;
+        // order of the put, to recognize answers of lookups that were overtaken by a later put
+        private final long sequence;
+
+        private Entry(boolean registered, long expires, long sequence) {
+            this.registered = registered;
+            this.expires = expires;
+            this.sequence = sequence;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private final Map<String, CompletableFuture<Boolean>> pendingLookups = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long sequence;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile int maxSize = 100000;
+    private volatile long timeToLive = TimeUnit.HOURS.toMillis(1);
+    private volatile long negativeTimeToLive = TimeUnit.MINUTES.toMillis(1);
+
+    public static ResolutionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set size and lifetime of the entries. As the cache is shared, the values of the client created last apply.
+     *
+     * @param maxSize maximum number of handles in the cache
+     * @param timeToLive seconds a registered handle is remembered
+     * @param negativeTimeToLive seconds a handle that was not found is remembered
+     */
+    public void configure(int maxSize, long timeToLive, long negativeTimeToLive) {
+        this.maxSize = Math.max(1, maxSize);
+        this.timeToLive = TimeUnit.SECONDS.toMillis(timeToLive);
+        this.negativeTimeToLive = TimeUnit.SECONDS.toMillis(negativeTimeToLive);
+    }
+
+    /**
+     * Returns true if the handle is registered. The cached answer is used if there is one, otherwise the lookup is called. If another thread is
+     * already looking up the same handle, its result is used instead.
+     */
+    public boolean isRegistered(String handle, Lookup lookup) throws HandleException {
+        Boolean cached = get(handle);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = pendingLookups.putIfAbsent(handle, pending);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            long started = getSequence();
+            Boolean answer = lookup.isRegistered(handle);
+            boolean registered = answer == null || putIfNotOvertaken(handle, answer, started);
+            pending.complete(registered);
+            return registered;
+        } catch (HandleException | RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingLookups.remove(handle);
+        }
+    }
+
+    private boolean await(CompletableFuture<Boolean> running) throws HandleException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted while waiting for the handle server");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HandleException) {
+                throw (HandleException) e.getCause();
+            }
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Handle lookup failed: " + e.getCause().getMessage());
+        }
+    }
+
+    private Boolean get(String handle) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(handle);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= System.currentTimeMillis()) {
+                entries.remove(handle);
+                return null;
+            }
+            return entry.registered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remember the state of a handle, e.g. after it was created or deleted.
+     */
+    public void put(String handle, boolean registered) {
+        lock.lock();
+        try {
+            store(handle, registered);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remember the answer of a lookup, unless the state of the handle was put while the lookup was running, e.g. because another thread
+     * created it. The newer state is kept then.
+     *
+     * @param started the sequence when the lookup was started
+     * @return the state of the handle
+     */
+    private boolean putIfNotOvertaken(String handle, boolean registered, long started) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(handle);
+            if (entry != null && entry.sequence > started) {
+                return entry.registered;
+            }
+            store(handle, registered);
+            return registered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String handle, boolean registered) {
+        long lifetime = registered ? timeToLive : negativeTimeToLive;
+        entries.put(handle, new Entry(registered, System.currentTimeMillis() + lifetime, ++sequence));
+    }
+
+    private long getSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public void logStatistics() {
+        log.debug("Handle resolution cache: " + size() + " entries, " + getHitCount() + " hits, " + getMissCount() + " misses");
+    }
+}
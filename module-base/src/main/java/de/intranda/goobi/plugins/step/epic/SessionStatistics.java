@@ -0,0 +1,102 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Counts how authenticated requests of a client used handle protocol sessions: how many sessions were set up, how often one was renewed after
+ * it had expired and how many requests reused an established session instead of going through the challenge and signature again.
+ *
+ * The counters run for the lifetime of the client, which is shared by many runs. The log shows what happened since the previous log entry.
+ */
+@Log4j2
+public class SessionStatistics {
+
+    private final long sessionTimeout;
+    private final LongAdder setups = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+    private final LongAdder withoutSession = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int lastSessionId;
+    private long lastSetup;
+    // counters at the time of the previous log entry
+    private long loggedSetups;
+    private long loggedRenewals;
+    private long loggedReuses;
+    private long loggedWithoutSession;
+
+    /**
+     * @param sessionTimeout lifetime of a session in s
+     */
+    public SessionStatistics(long sessionTimeout) {
+        this.sessionTimeout = TimeUnit.SECONDS.toNanos(sessionTimeout);
+    }
+
+    /**
+     * Record the session an authenticated request was sent with, 0 if it was sent without one.
+     */
+    public void record(int sessionId) {
+        lock.lock();
+        try {
+            if (sessionId == 0) {
+                withoutSession.increment();
+            } else if (sessionId == lastSessionId) {
+                reuses.increment();
+            } else {
+                long now = System.nanoTime();
+                if (lastSessionId != 0 && now - lastSetup >= sessionTimeout) {
+                    renewals.increment();
+                } else {
+                    setups.increment();
+                }
+                lastSessionId = sessionId;
+                lastSetup = now;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSetups() {
+        return setups.sum();
+    }
+
+    public long getRenewals() {
+        return renewals.sum();
+    }
+
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    public long getRequestsWithoutSession() {
+        return withoutSession.sum();
+    }
+
+    /**
+     * Log the sessions since the previous call, e.g. at the end of a run.
+     */
+    public void logStatistics() {
+        lock.lock();
+        try {
+            long currentSetups = getSetups();
+            long currentRenewals = getRenewals();
+            long currentReuses = getReuses();
+            long currentWithoutSession = getRequestsWithoutSession();
+            log.info("Handle sessions since the last report: " + (currentSetups - loggedSetups) + " set up, " + (currentRenewals - loggedRenewals)
+                    + " renewed, " + (currentReuses - loggedReuses) + " requests reused a session, " + (currentWithoutSession - loggedWithoutSession)
+                    + " requests without session");
+            loggedSetups = currentSetups;
+            loggedRenewals = currentRenewals;
+            loggedReuses = currentReuses;
+            loggedWithoutSession = currentWithoutSession;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.SiteInfo;
+
+/**
+ * Durable cache of the sites serving each handle prefix, kept in one file per prefix. A new client, e.g. after a restart of the application
+ * server, can send its first request straight to the right site instead of looking up the prefix at the global handle registry first.
+ *
+ * Entries older than the refresh interval are still used, while they are looked up again in the background. At most a fixed number of prefixes
+ * is kept, the least recently used one is removed first.
+ */
+@Log4j2
+public class SiteInfoCache {
+
+    private static final Map<Path, SiteInfoCache> CACHES = new ConcurrentHashMap<>();
+    private static final String FILE_SUFFIX = ".siteinfo";
+
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "epic-pid-site-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Lookup of the sites of a prefix, usually at the global handle registry.
+     */
+    @FunctionalInterface
+    public interface Lookup {
+        SiteInfo[] findSites(String prefix) throws HandleException;
+    }
+
+    private static class Entry {
+        private final SiteInfo[] sites;
+        private final long fetched;
+
+        private Entry(SiteInfo[] sites, long fetched) {
+            this.sites = sites;
+            this.fetched = fetched;
+        }
+    }
+
+    private final Path folder;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= maxPrefixes) {
+                return false;
+            }
+            deleteFile(eldest.getKey());
+            return true;
+        }
+    };
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private volatile int maxPrefixes = 100;
+    private volatile long refreshInterval = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Get the cache stored in the given folder. All clients using the same folder share one instance.
+     */
+    public static SiteInfoCache forFolder(Path folder) {
+        return CACHES.computeIfAbsent(folder.toAbsolutePath().normalize(), SiteInfoCache::new);
+    }
+
+    /**
+     * A cache that is only kept in memory, for clients that do not talk to a real handle server.
+     */
+    public static SiteInfoCache inMemory() {
+        return new SiteInfoCache(null);
+    }
+
+    private SiteInfoCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @param maxPrefixes number of prefixes to keep
+     * @param refreshInterval age in s after which the sites of a prefix are looked up again
+     */
+    public void configure(int maxPrefixes, long refreshInterval) {
+        this.maxPrefixes = Math.max(1, maxPrefixes);
+        this.refreshInterval = TimeUnit.SECONDS.toMillis(refreshInterval);
+        removeSurplusFiles();
+    }
+
+    /**
+     * The sites serving the prefix. Known sites are returned at once, even if they are due for a refresh. Unknown prefixes are looked up.
+     *
+     * @return the sites, or null if they are not known and cannot be looked up
+     */
+    public SiteInfo[] get(String prefix, Lookup lookup) {
+        Entry entry = getEntry(prefix);
+        if (entry == null) {
+            return refresh(prefix, lookup);
+        }
+        if (System.currentTimeMillis() - entry.fetched > refreshInterval && refreshing.add(prefix)) {
+            REFRESHER.execute(() -> {
+                try {
+                    refresh(prefix, lookup);
+                } finally {
+                    refreshing.remove(prefix);
+                }
+            });
+        }
+        return entry.sites;
+    }
+
+    /**
+     * Forget the sites of the prefix, e.g. because a request to one of them failed.
+     */
+    public void invalidate(String prefix) {
+        lock.lock();
+        try {
+            entries.remove(prefix);
+            deleteFile(prefix);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SiteInfo[] refresh(String prefix, Lookup lookup) {
+        SiteInfo[] sites;
+        try {
+            sites = lookup.findSites(prefix);
+        } catch (HandleException e) {
+            log.warn("Could not find the sites serving " + prefix + ": " + e.getMessage());
+            return null;
+        }
+        if (sites == null || sites.length == 0) {
+            return null;
+        }
+        Entry entry = new Entry(sites, System.currentTimeMillis());
+        lock.lock();
+        try {
+            entries.put(prefix, entry);
+        } finally {
+            lock.unlock();
+        }
+        writeFile(prefix, entry);
+        return sites;
+    }
+
+    private Entry getEntry(String prefix) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(prefix);
+            if (entry == null) {
+                entry = readFile(prefix);
+                if (entry != null) {
+                    entries.put(prefix, entry);
+                }
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path getFile(String prefix) {
+        return folder.resolve(prefix.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+    }
+
+    private Entry readFile(String prefix) {
+        if (folder == null || !Files.exists(getFile(prefix))) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(getFile(prefix))))) {
+            long fetched = in.readLong();
+            SiteInfo[] sites = new SiteInfo[in.readInt()];
+            for (int i = 0; i < sites.length; i++) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                sites[i] = new SiteInfo();
+                Encoder.decodeSiteInfoRecord(record, 0, sites[i]);
+            }
+            return new Entry(sites, fetched);
+        } catch (IOException | HandleException e) {
+            // the sites can always be looked up again
+            log.warn("Could not read the cached sites of " + prefix + ", looking them up again", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the sites of the prefix. The file is replaced atomically, so that other clients never read a half written file.
+     */
+    private void writeFile(String prefix, Entry entry) {
+        if (folder == null) {
+            return;
+        }
+        Path file = getFile(prefix);
+        Path temp = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(entry.fetched);
+                out.writeInt(entry.sites.length);
+                for (SiteInfo site : entry.sites) {
+                    byte[] record = Encoder.encodeSiteInfoRecord(site);
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            }
+            Files.createDirectories(folder);
+            temp = Files.createTempFile(folder, "sites", ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save the sites of " + prefix + " in " + file, e);
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    private void deleteFile(String prefix) {
+        if (folder == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(getFile(prefix));
+        } catch (IOException e) {
+            log.warn("Could not delete the cached sites of " + prefix, e);
+        }
+    }
+
+    /**
+     * Keep only the most recently written files, if there are more than maxPrefixes, e.g. because the limit was lowered.
+     */
+    private void removeSurplusFiles() {
+        if (folder == null || !Files.isDirectory(folder)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            log.warn("Could not list the cached sites in " + folder, e);
+            return;
+        }
+        if (files.size() <= maxPrefixes) {
+            return;
+        }
+        files.sort(Comparator.comparing(SiteInfoCache::getLastModified).reversed());
+        for (Path file : files.subList(maxPrefixes, files.size())) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete " + file, e);
+            }
+        }
+    }
+
+    private static long getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import de.intranda.goobi.plugins.step.epic.HandleNamingStrategy.Element;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DocStructType;
+import ugh.dl.Prefs;
+
+/**
+ * Reads and writes the handles of a METS file with StAX instead of the UGH model, for objects with very many pages.
+ *
+ * The first pass reads the file once and keeps only the IDs of the elements that get a handle and their existing handles: the top logical
+ * element (the first child for anchor records), the top physical element and all elements below it, usually the pages. The second pass copies
+ * the file event by event, writes the new handles into the goobi extension of the dmdSecs and adds a dmdSec and DMDID for elements that have no
+ * descriptive metadata yet. Everything else in the file is left as it is.
+ */
+@Log4j2
+public class StreamingMetsHandles {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String MODS_NS = "http://www.loc.gov/mods/v3";
+    private static final String GOOBI_NS = "http://meta.goobi.org/v1.5.1/";
+    private static final String IDENTIFIER_METADATA = "CatalogIDDigital";
+
+    /**
+     * An element of the structMaps that gets a handle.
+     */
+    public static class Target {
+        @Getter
+        private final String divId;
+        // position in the structure tree, as used by the handle journal and the naming strategies
+        @Getter
+        private final String path;
+        private String dmdId;
+        // ORDER of a page
+        @Getter
+        private final Integer order;
+        @Getter
+        private final String type;
+        @Getter
+        private String existingHandle;
+        @Getter
+        private String handle;
+
+        private Target(String divId, String path, String dmdId, Integer order, String type) {
+            this.divId = divId;
+            this.path = path;
+            this.dmdId = dmdId;
+            this.order = order;
+            this.type = type;
+        }
+
+        /**
+         * Set the handle to write into the file.
+         */
+        public void setHandle(String handle) {
+            this.handle = handle;
+        }
+
+        private boolean isChanged() {
+            return handle != null && !handle.equals(existingHandle);
+        }
+    }
+
+    private final Path metsFile;
+    private final String handleMetadata;
+
+    @Getter
+    private String identifier;
+    @Getter
+    private Target logicalTarget;
+    @Getter
+    private Target physicalTarget;
+    private final List<Target> pages = new ArrayList<>();
+    private final Set<String> dmdIds = new HashSet<>();
+
+    private String metsPrefix = "mets";
+    private String modsPrefix = "mods";
+    private String goobiPrefix = "goobi";
+    private String goobiNamespace = GOOBI_NS;
+
+    private StreamingMetsHandles(Path metsFile, String handleMetadata) {
+        this.metsFile = metsFile;
+        this.handleMetadata = handleMetadata;
+    }
+
+    /**
+     * Read the elements that get a handle, their existing handles and the identifier of the object from the file.
+     *
+     * @param prefs the ruleset, to recognise anchor records
+     * @param handleMetadata internal name of the metadata holding the handle
+     */
+    public static StreamingMetsHandles read(Path metsFile, Prefs prefs, String handleMetadata) throws IOException, XMLStreamException {
+        StreamingMetsHandles mets = new StreamingMetsHandles(metsFile, handleMetadata);
+        mets.readTargets(prefs);
+        return mets;
+    }
+
+    /**
+     * The elements below the top physical element in document order, usually the pages.
+     */
+    public List<Target> getPages() {
+        return Collections.unmodifiableList(pages);
+    }
+
+    private void readTargets(Prefs prefs) throws IOException, XMLStreamException {
+        Map<String, String> handles = new HashMap<>();
+        Map<String, String> identifiers = new HashMap<>();
+        XMLInputFactory factory = createInputFactory();
+        try (InputStream in = Files.newInputStream(metsFile)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            String dmdId = null;
+            boolean inGoobi = false;
+            String structMapType = null;
+            int divDepth = 0;
+            boolean logicalAnchor = false;
+            // paths of the open physical divs and the number of children seen for each, to name the elements like the UGH tree
+            List<String> openPaths = new ArrayList<>();
+            List<Integer> childCounts = new ArrayList<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    String namespace = reader.getNamespaceURI();
+                    if (METS_NS.equals(namespace)) {
+                        if ("mets".equals(name)) {
+                            metsPrefix = reader.getPrefix();
+                        } else if ("dmdSec".equals(name)) {
+                            dmdId = reader.getAttributeValue(null, "ID");
+                            dmdIds.add(dmdId);
+                        } else if ("structMap".equals(name)) {
+                            structMapType = reader.getAttributeValue(null, "TYPE");
+                            divDepth = 0;
+                        } else if ("div".equals(name) && structMapType != null) {
+                            divDepth++;
+                            String path = Element.LOGICAL_ROOT;
+                            if ("PHYSICAL".equals(structMapType)) {
+                                if (divDepth == 1) {
+                                    path = Element.PHYSICAL_ROOT;
+                                } else {
+                                    int index = childCounts.get(divDepth - 2);
+                                    childCounts.set(divDepth - 2, index + 1);
+                                    path = openPaths.get(divDepth - 2) + "/" + index;
+                                }
+                                openPaths.add(path);
+                                childCounts.add(0);
+                            }
+                            Target target = new Target(reader.getAttributeValue(null, "ID"), path, reader.getAttributeValue(null, "DMDID"),
+                                    parseOrder(reader.getAttributeValue(null, "ORDER")), reader.getAttributeValue(null, "TYPE"));
+                            if ("LOGICAL".equals(structMapType)) {
+                                if (divDepth == 1) {
+                                    // an anchor record has its own file, the handle goes to the first child
+                                    DocStructType type = prefs.getDocStrctTypeByName(target.getType());
+                                    logicalAnchor = type != null && type.isAnchor();
+                                    if (!logicalAnchor) {
+                                        logicalTarget = target;
+                                    }
+                                } else if (divDepth == 2 && logicalAnchor && logicalTarget == null) {
+                                    logicalTarget = target;
+                                }
+                            } else if ("PHYSICAL".equals(structMapType)) {
+                                if (divDepth == 1) {
+                                    physicalTarget = target;
+                                } else {
+                                    pages.add(target);
+                                }
+                            }
+                        }
+                    } else if (MODS_NS.equals(namespace) && "mods".equals(name)) {
+                        modsPrefix = reader.getPrefix();
+                    } else if (dmdId != null && "goobi".equals(name)) {
+                        inGoobi = true;
+                        goobiPrefix = reader.getPrefix();
+                        goobiNamespace = namespace;
+                    } else if (inGoobi && "metadata".equals(name)) {
+                        String metadataName = reader.getAttributeValue(null, "name");
+                        if (handleMetadata.equals(metadataName)) {
+                            handles.putIfAbsent(dmdId, reader.getElementText().trim());
+                        } else if (IDENTIFIER_METADATA.equals(metadataName)) {
+                            identifiers.putIfAbsent(dmdId, reader.getElementText().trim());
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (METS_NS.equals(reader.getNamespaceURI())) {
+                        if ("dmdSec".equals(name)) {
+                            dmdId = null;
+                        } else if ("div".equals(name) && structMapType != null) {
+                            if ("PHYSICAL".equals(structMapType)) {
+                                openPaths.remove(divDepth - 1);
+                                childCounts.remove(divDepth - 1);
+                            }
+                            divDepth--;
+                        } else if ("structMap".equals(name)) {
+                            structMapType = null;
+                        }
+                    } else if ("goobi".equals(name)) {
+                        inGoobi = false;
+                    }
+                }
+            }
+            reader.close();
+        }
+
+        for (Target target : getAllTargets()) {
+            if (target.dmdId != null) {
+                target.existingHandle = handles.get(target.dmdId);
+            }
+        }
+        if (logicalTarget != null && logicalTarget.dmdId != null) {
+            identifier = identifiers.get(logicalTarget.dmdId);
+        }
+    }
+
+    private List<Target> getAllTargets() {
+        List<Target> targets = new ArrayList<>(pages.size() + 2);
+        if (logicalTarget != null) {
+            targets.add(logicalTarget);
+        }
+        if (physicalTarget != null) {
+            targets.add(physicalTarget);
+        }
+        targets.addAll(pages);
+        return targets;
+    }
+
+    /**
+     * Write the handles set in the targets into the file. Returns false without touching the file if no handle has changed.
+     *
+     * @param numberOfBackups number of earlier versions of the file to keep as "meta.xml.1" (newest) to "meta.xml.n", as Goobi does when it
+     *            saves a METS file
+     */
+    public boolean write(int numberOfBackups) throws IOException, XMLStreamException {
+        Map<String, Target> changedDmdSecs = new HashMap<>();
+        Map<String, Target> newDmdSecs = new HashMap<>();
+        List<Target> newDmdSecOrder = new ArrayList<>();
+        for (Target target : getAllTargets()) {
+            if (!target.isChanged()) {
+                continue;
+            }
+            if (target.dmdId != null && dmdIds.contains(target.dmdId)) {
+                changedDmdSecs.put(target.dmdId, target);
+            } else {
+                target.dmdId = createDmdId(target.divId);
+                newDmdSecs.put(target.divId, target);
+                newDmdSecOrder.add(target);
+            }
+        }
+        if (changedDmdSecs.isEmpty() && newDmdSecs.isEmpty()) {
+            return false;
+        }
+
+        Path tempFile = metsFile.resolveSibling(metsFile.getFileName() + ".handles.tmp");
+        try (InputStream in = Files.newInputStream(metsFile); OutputStream out = Files.newOutputStream(tempFile)) {
+            XMLEventReader reader = createInputFactory().createXMLEventReader(in);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            copyWithHandles(reader, writer, changedDmdSecs, newDmdSecs, newDmdSecOrder);
+            writer.flush();
+            writer.close();
+            reader.close();
+        } catch (IOException | XMLStreamException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        createBackup(numberOfBackups);
+        Files.move(tempFile, metsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Handles written to " + metsFile + ": " + changedDmdSecs.size() + " changed, " + newDmdSecs.size() + " new dmdSecs");
+        return true;
+    }
+
+    /**
+     * Rotate the backups of the file and copy the current file to the newest one.
+     */
+    private void createBackup(int numberOfBackups) throws IOException {
+        if (numberOfBackups <= 0) {
+            return;
+        }
+        String name = metsFile.getFileName().toString();
+        for (int i = numberOfBackups - 1; i > 0; i--) {
+            Path backup = metsFile.resolveSibling(name + "." + i);
+            if (Files.exists(backup)) {
+                Files.move(backup, metsFile.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.copy(metsFile, metsFile.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private void copyWithHandles(XMLEventReader reader, XMLEventWriter writer, Map<String, Target> changedDmdSecs, Map<String, Target> newDmdSecs,
+            List<Target> newDmdSecOrder) throws XMLStreamException {
+        XMLEventFactory events = XMLEventFactory.newInstance();
+        int depth = 0;
+        boolean newDmdSecsWritten = newDmdSecOrder.isEmpty();
+        Target dmdTarget = null;
+        boolean sawGoobi = false;
+        boolean handleWritten = false;
+
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                StartElement start = event.asStartElement();
+                QName name = start.getName();
+                depth++;
+                if (depth == 2 && !newDmdSecsWritten && METS_NS.equals(name.getNamespaceURI()) && !"metsHdr".equals(name.getLocalPart())
+                        && !"dmdSec".equals(name.getLocalPart())) {
+                    // new dmdSecs go after the existing ones, before amdSec, fileSec and structMaps
+                    for (Target target : newDmdSecOrder) {
+                        writeDmdSec(writer, events, target);
+                    }
+                    newDmdSecsWritten = true;
+                }
+
+                if (isMets(name, "dmdSec")) {
+                    dmdTarget = changedDmdSecs.get(getAttribute(start, "ID"));
+                    sawGoobi = false;
+                    handleWritten = false;
+                } else if (dmdTarget != null && "goobi".equals(name.getLocalPart())) {
+                    sawGoobi = true;
+                } else if (dmdTarget != null && sawGoobi && !handleWritten && "metadata".equals(name.getLocalPart())
+                        && handleMetadata.equals(getAttribute(start, "name"))) {
+                    // replace the old handle and skip its content
+                    writer.add(event);
+                    writer.add(events.createCharacters(dmdTarget.handle));
+                    skipContent(reader);
+                    writer.add(events.createEndElement(name, null));
+                    depth--;
+                    handleWritten = true;
+                    continue;
+                } else if (isMets(name, "div")) {
+                    Target target = newDmdSecs.get(getAttribute(start, "ID"));
+                    if (target != null) {
+                        event = addAttribute(events, start, "DMDID", target.dmdId);
+                    }
+                }
+            } else if (event.isEndElement()) {
+                EndElement end = event.asEndElement();
+                QName name = end.getName();
+                depth--;
+                if (dmdTarget != null && !handleWritten) {
+                    if ("goobi".equals(name.getLocalPart())) {
+                        writeHandleMetadata(writer, events, dmdTarget.handle);
+                        handleWritten = true;
+                    } else if (MODS_NS.equals(name.getNamespaceURI()) && "mods".equals(name.getLocalPart()) && !sawGoobi) {
+                        writeExtension(writer, events, dmdTarget.handle);
+                        handleWritten = true;
+                    }
+                }
+                if (isMets(name, "dmdSec")) {
+                    dmdTarget = null;
+                }
+            }
+            writer.add(event);
+        }
+    }
+
+    /**
+     * Consume the events up to and including the end of the current element.
+     */
+    private static void skipContent(XMLEventReader reader) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                level++;
+            } else if (event.isEndElement()) {
+                level--;
+            }
+        }
+    }
+
+    private void writeDmdSec(XMLEventWriter writer, XMLEventFactory events, Target target) throws XMLStreamException {
+        writer.add(events.createStartElement(metsPrefix, METS_NS, "dmdSec", Collections.singleton(events.createAttribute("ID", target.dmdId))
+                .iterator(), Collections.singleton(events.createNamespace(metsPrefix, METS_NS)).iterator()));
+        writer.add(events.createStartElement(metsPrefix, METS_NS, "mdWrap", Collections.singleton(events.createAttribute("MDTYPE", "MODS"))
+                .iterator(), null));
+        writer.add(events.createStartElement(metsPrefix, METS_NS, "xmlData"));
+        writer.add(events.createStartElement(modsPrefix, MODS_NS, "mods", null,
+                Collections.singleton(events.createNamespace(modsPrefix, MODS_NS)).iterator()));
+        writeExtension(writer, events, target.handle);
+        writer.add(events.createEndElement(modsPrefix, MODS_NS, "mods"));
+        writer.add(events.createEndElement(metsPrefix, METS_NS, "xmlData"));
+        writer.add(events.createEndElement(metsPrefix, METS_NS, "mdWrap"));
+        writer.add(events.createEndElement(metsPrefix, METS_NS, "dmdSec"));
+    }
+
+    private void writeExtension(XMLEventWriter writer, XMLEventFactory events, String handle) throws XMLStreamException {
+        writer.add(events.createStartElement(modsPrefix, MODS_NS, "extension"));
+        writer.add(events.createStartElement(goobiPrefix, goobiNamespace, "goobi", null,
+                Collections.singleton(events.createNamespace(goobiPrefix, goobiNamespace)).iterator()));
+        writeHandleMetadata(writer, events, handle);
+        writer.add(events.createEndElement(goobiPrefix, goobiNamespace, "goobi"));
+        writer.add(events.createEndElement(modsPrefix, MODS_NS, "extension"));
+    }
+
+    private void writeHandleMetadata(XMLEventWriter writer, XMLEventFactory events, String handle) throws XMLStreamException {
+        writer.add(events.createStartElement(goobiPrefix, goobiNamespace, "metadata",
+                Collections.singleton(events.createAttribute("name", handleMetadata)).iterator(), null));
+        writer.add(events.createCharacters(handle));
+        writer.add(events.createEndElement(goobiPrefix, goobiNamespace, "metadata"));
+    }
+
+    private static StartElement addAttribute(XMLEventFactory events, StartElement start, String name, String value) {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<Attribute> iterator = start.getAttributes();
+        while (iterator.hasNext()) {
+            Attribute attribute = iterator.next();
+            if (!name.equals(attribute.getName().getLocalPart())) {
+                attributes.add(attribute);
+            }
+        }
+        attributes.add(events.createAttribute(name, value));
+        QName element = start.getName();
+        return events.createStartElement(element.getPrefix(), element.getNamespaceURI(), element.getLocalPart(), attributes.iterator(),
+                start.getNamespaces(), start.getNamespaceContext());
+    }
+
+    private static String getAttribute(StartElement start, String name) {
+        Attribute attribute = start.getAttributeByName(new QName(name));
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    private static boolean isMets(QName name, String localName) {
+        return METS_NS.equals(name.getNamespaceURI()) && localName.equals(name.getLocalPart());
+    }
+
+    /**
+     * An ID for a new dmdSec, following the UGH naming: "DMD" + the ID of the div.
+     */
+    private String createDmdId(String divId) {
+        String dmdId = "DMD" + divId;
+        int i = 1;
+        while (dmdIds.contains(dmdId)) {
+            dmdId = "DMD" + divId + "_" + i++;
+        }
+        dmdIds.add(dmdId);
+        return dmdId;
+    }
+
+    private static Integer parseOrder(String order) {
+        try {
+            return order == null ? null : Integer.valueOf(order.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Persistent record of the highest suffix minted for each handle stem. A new run can start minting directly after it, instead of probing all
+ * handles of earlier runs again.
+ *
+ * The index is only a hint, the handle server stays authoritative: if an entry is outdated, the first candidates after it are found to be
+ * registered and skipped as usual. A suffix of -1 means that only the stem itself was minted.
+ */
+@Log4j2
+public class SuffixIndex {
+
+    private static final Map<Path, SuffixIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Map<String, Integer> highWaterMarks = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Get the index stored in the given file. All clients using the same file share one instance.
+     */
+    public static SuffixIndex forFile(Path file) {
+        return INDEXES.computeIfAbsent(file.toAbsolutePath().normalize(), SuffixIndex::new);
+    }
+
+    private SuffixIndex(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                for (String stem : properties.stringPropertyNames()) {
+                    highWaterMarks.put(stem, Integer.parseInt(properties.getProperty(stem)));
+                }
+            } catch (IOException | NumberFormatException e) {
+                // the index can always be rebuilt from the server, so start with an empty one
+                log.warn("Could not read suffix index " + file + ", starting with an empty index", e);
+            }
+        }
+    }
+
+    /**
+     * @return the highest suffix minted for the stem, or null if the stem is not in the index
+     */
+    public Integer getHighWaterMark(String stem) {
+        return highWaterMarks.get(stem);
+    }
+
+    /**
+     * Remember a minted suffix. Lower suffixes than the one already recorded are ignored.
+     */
+    public void record(String stem, int suffix) {
+        Integer previous = highWaterMarks.get(stem);
+        if (previous == null || previous < suffix) {
+            highWaterMarks.merge(stem, suffix, Math::max);
+            changed = true;
+        }
+    }
+
+    /**
+     * Write the index to its file, if anything has changed. The file is replaced atomically, so a crash never leaves a half written index.
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            if (!changed) {
+                return;
+            }
+            changed = false;
+            Properties properties = new Properties();
+            for (Map.Entry<String, Integer> entry : highWaterMarks.entrySet()) {
+                properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    properties.store(out, "highest minted handle suffix per stem");
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                changed = true;
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import lombok.extern.log4j.Log4j2;
+import net.handle.hdllib.HandleException;
+
+/**
+ * Strategies to find the first free suffix of a handle stem. Suffixes are numbered in the order they are minted: -1 stands for the stem
+ * itself, 0 for "stem-0", 1 for "stem-1" and so on.
+ */
+@Log4j2
+public enum SuffixSearchStrategy {
+
+    /**
+     * Check one suffix after the other. Needs one resolution per registered suffix.
+     */
+    LINEAR {
+        @Override
+        public int findFirstFree(int start, Probe probe, int maxProbes) throws HandleException {
+            int suffix = start;
+            int iProbes = 0;
+            while (probe.isRegistered(suffix)) {
+                suffix++;
+                if (++iProbes > maxProbes) {
+                    throw new HandleException(HandleException.INTERNAL_ERROR, "Registry query always returning true after suffix " + start);
+                }
+            }
+            return suffix;
+        }
+    },
+
+    /**
+     * Double the distance until a free suffix is found, then use binary search between the last registered and the first free suffix. As
+     * suffixes are minted without gaps, this needs O(log n) resolutions instead of O(n).
+     */
+    GALLOPING {
+        @Override
+        public int findFirstFree(int start, Probe probe, int maxProbes) throws HandleException {
+            if (!probe.isRegistered(start)) {
+                return start;
+            }
+            // start is registered, find a free suffix above it
+            int lastRegistered = start;
+            int distance = 1;
+            int free = start + distance;
+            while (probe.isRegistered(free)) {
+                lastRegistered = free;
+                if (distance > maxProbes) {
+                    throw new HandleException(HandleException.INTERNAL_ERROR, "Registry query always returning true after suffix " + start);
+                }
+                distance *= 2;
+                free = start + distance;
+            }
+            // the first free suffix lies in (lastRegistered, free]
+            while (free - lastRegistered > 1) {
+                int middle = lastRegistered + (free - lastRegistered) / 2;
+                if (probe.isRegistered(middle)) {
+                    lastRegistered = middle;
+                } else {
+                    free = middle;
+                }
+            }
+            return free;
+        }
+    };
+
+    /**
+     * Existence check for a single suffix, usually a resolution request to the handle server.
+     */
+    @FunctionalInterface
+    public interface Probe {
+        boolean isRegistered(int suffix) throws HandleException;
+    }
+
+    /**
+     * Find the first suffix at or after start that is not registered.
+     *
+     * @param maxProbes stop with an exception if no free suffix is found within this distance
+     */
+    public abstract int findFirstFree(int start, Probe probe, int maxProbes) throws HandleException;
+
+    /**
+     * The strategy with the given name, "linear" if the name is empty or unknown.
+     */
+    public static SuffixSearchStrategy getByName(String name) {
+        if (name == null || name.isBlank()) {
+            return LINEAR;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown suffix search strategy '" + name + "', using linear search");
+            return LINEAR;
+        }
+    }
+}
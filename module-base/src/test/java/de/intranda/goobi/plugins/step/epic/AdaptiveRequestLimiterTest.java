@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.handle.hdllib.HandleException;
+
+public class AdaptiveRequestLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(40);
+
+    private static void request(AdaptiveRequestLimiter limiter, long latency, boolean failed, boolean resolution) throws HandleException {
+        limiter.acquire();
+        limiter.release(latency, failed, resolution);
+    }
+
+    @Test
+    public void testLimitGrowsWithFastAnswers() throws HandleException {
+        AdaptiveRequestLimiter limiter = AdaptiveRequestLimiter.forServer("test-grow", 1, 64, 0);
+        assertEquals(8, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            request(limiter, FAST, false, true);
+        }
+        assertTrue(limiter.getLimit() > 8);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testSlowAdminRequestsDoNotThrottleResolutions() throws HandleException {
+        AdaptiveRequestLimiter limiter = AdaptiveRequestLimiter.forServer("test-mixed", 1, 64, 0);
+        request(limiter, FAST, false, true);
+        // administrative requests take much longer than resolutions, but that is no sign of overload
+        request(limiter, SLOW, false, false);
+        assertEquals(8, limiter.getLimit());
+        request(limiter, FAST, false, true);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowerAnswersReduceTheLimit() throws HandleException {
+        AdaptiveRequestLimiter limiter = AdaptiveRequestLimiter.forServer("test-slower", 1, 64, 0);
+        request(limiter, FAST, false, true);
+        request(limiter, SLOW, false, true);
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailureHalvesTheLimit() throws HandleException {
+        AdaptiveRequestLimiter limiter = AdaptiveRequestLimiter.forServer("test-failure", 2, 64, 0);
+        request(limiter, FAST, true, false);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testLatencyTarget() throws HandleException {
+        AdaptiveRequestLimiter limiter = AdaptiveRequestLimiter.forServer("test-target", 1, 64, 10);
+        request(limiter, FAST, false, true);
+        // below the target, although much slower than the first answer
+        for (int i = 0; i < 20; i++) {
+            request(limiter, TimeUnit.MILLISECONDS.toNanos(9), false, true);
+        }
+        assertTrue(limiter.getLimit() > 8);
+    }
+}
@@ -0,0 +1,66 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.step.epic.HandleNamingStrategy.Element;
+
+public class BuiltInNamingStrategyTest {
+
+    private static final Element LOGICAL = new Element(Element.LOGICAL_ROOT, "LOG_0000", null, "Monograph");
+    private static final Element PHYSICAL = new Element(Element.PHYSICAL_ROOT, "PHYS_0000", null, "BoundBook");
+    private static final Element PAGE = new Element("physical/11", "PHYS_0012", 12, "page");
+    private static final Element NEW_PAGE = new Element("physical/12", null, null, "page");
+
+    /**
+     * Names the handles after the structure type, to test loading a strategy by class name.
+     */
+    public static class TypeNamingStrategy implements HandleNamingStrategy {
+        @Override
+        public String getSuffix(Element element) {
+            return element.getType();
+        }
+    }
+
+    @Test
+    public void testProbe() {
+        assertNull(BuiltInNamingStrategy.PROBE.getSuffix(PAGE));
+    }
+
+    @Test
+    public void testOrder() {
+        assertEquals("", BuiltInNamingStrategy.ORDER.getSuffix(LOGICAL));
+        assertEquals("0", BuiltInNamingStrategy.ORDER.getSuffix(PHYSICAL));
+        assertEquals("12", BuiltInNamingStrategy.ORDER.getSuffix(PAGE));
+        assertNull(BuiltInNamingStrategy.ORDER.getSuffix(NEW_PAGE));
+    }
+
+    @Test
+    public void testMetsId() {
+        assertEquals("LOG_0000", BuiltInNamingStrategy.METSID.getSuffix(LOGICAL));
+        assertEquals("PHYS_0012", BuiltInNamingStrategy.METSID.getSuffix(PAGE));
+        assertNull(BuiltInNamingStrategy.METSID.getSuffix(NEW_PAGE));
+    }
+
+    @Test
+    public void testHashIsStable() {
+        String suffix = BuiltInNamingStrategy.HASH.getSuffix(PAGE);
+        assertEquals(12, suffix.length());
+        assertEquals(suffix, BuiltInNamingStrategy.HASH.getSuffix(new Element("physical/11", "PHYS_0012", 12, "page")));
+        assertNotEquals(suffix, BuiltInNamingStrategy.HASH.getSuffix(PHYSICAL));
+        // elements without METS ID are hashed by their position
+        assertEquals(12, BuiltInNamingStrategy.HASH.getSuffix(NEW_PAGE).length());
+    }
+
+    @Test
+    public void testGetByName() {
+        assertEquals(BuiltInNamingStrategy.PROBE, BuiltInNamingStrategy.getByName(""));
+        assertEquals(BuiltInNamingStrategy.METSID, BuiltInNamingStrategy.getByName("metsId"));
+        assertEquals(BuiltInNamingStrategy.PROBE, BuiltInNamingStrategy.getByName("no.such.Strategy"));
+        HandleNamingStrategy custom = BuiltInNamingStrategy.getByName(TypeNamingStrategy.class.getName());
+        assertEquals("page", custom.getSuffix(PAGE));
+    }
+}
@@ -0,0 +1,256 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.intranda.goobi.plugins.step.epic.HandleNamingStrategy.Element;
+import de.intranda.goobi.plugins.step.epic.PidBackend.UpdateResult;
+import net.handle.hdllib.HandleException;
+
+public class EpicRestBackendTest {
+
+    private static final String PREFIX = "21.T11998";
+    private static final String URL = "https://viewer.example.org/";
+    private static final String USER = "goobi";
+    private static final String PASSWORD = "secret";
+
+    private HttpServer server;
+    // the stand-in for the ePIC API: the values of each handle, as JSON
+    private final Map<String, String> handles = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/handles/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Answer like the ePIC API: PUT with If-None-Match or If-Match, GET and DELETE of "/api/handles/prefix/suffix".
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            String expected = "Basic " + Base64.getEncoder().encodeToString((USER + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+            if (!expected.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401, null);
+                return;
+            }
+            String handle = exchange.getRequestURI().getPath().substring("/api/handles/".length());
+            boolean exists = handles.containsKey(handle);
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                    if (exists && "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))
+                            || !exists && "*".equals(exchange.getRequestHeaders().getFirst("If-Match"))) {
+                        respond(exchange, 412, null);
+                    } else {
+                        handles.put(handle, body);
+                        respond(exchange, exists ? 204 : 201, null);
+                    }
+                    break;
+                case "GET":
+                    respond(exchange, exists ? 200 : 404, exists ? "[{\"idx\":100,\"type\":\"HS_ADMIN\",\"parsed_data\":{\"adminId\":\"0.NA/"
+                            + PREFIX + "\",\"adminIdIndex\":300,\"perms\":{\"add_handle\":true}},\"ttl\":86400}," + handles.get(handle).substring(1)
+                            : null);
+                    break;
+                case "DELETE":
+                    handles.remove(handle);
+                    respond(exchange, exists ? 204 : 404, null);
+                    break;
+                default:
+                    respond(exchange, 405, null);
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private EpicRestBackend createBackend(String namingStrategy, String updateExistingHandles, String password) throws HandleException {
+        return createBackend(namingStrategy, updateExistingHandles, password, "-");
+    }
+
+    private EpicRestBackend createBackend(String namingStrategy, String updateExistingHandles, String password, String separator)
+            throws HandleException {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.addProperty("config.backend", "epicRest");
+        xmlConfig.addProperty("config.epicApiUrl", "http://localhost:" + server.getAddress().getPort() + "/api/handles");
+        xmlConfig.addProperty("config.epicApiUser", USER);
+        xmlConfig.addProperty("config.epicApiPassword", password);
+        xmlConfig.addProperty("config.base", PREFIX);
+        xmlConfig.addProperty("config.url", URL);
+        xmlConfig.addProperty("config.separator", separator);
+        xmlConfig.addProperty("config.namingStrategy", namingStrategy);
+        xmlConfig.addProperty("config.updateExistingHandles", updateExistingHandles);
+        xmlConfig.addProperty("config.requestTimeout", 5000);
+        SubnodeConfiguration config = xmlConfig.configurationAt("config");
+        return new EpicRestBackend(config);
+    }
+
+    private void register(String handle, String url) {
+        handles.put(handle, "[{\"type\":\"URL\",\"parsed_data\":\"" + url + "\"}]");
+    }
+
+    @Test
+    public void testMintFreeSuffix() throws Exception {
+        EpicRestBackend backend = createBackend("probe", "always", PASSWORD);
+        register(PREFIX + "/go-PPN1-0", URL + "elsewhere");
+
+        assertEquals(PREFIX + "/go-PPN1", backend.makeURLHandleForObject("PPN1", "go-", null, null));
+        assertEquals(PREFIX + "/go-PPN1-1", backend.makeURLHandleForObject("PPN1", "go-", null, null));
+        assertEquals(URL + PREFIX + "/go-PPN1-1", backend.resolveURL(PREFIX + "/go-PPN1-1"));
+        // the existing handle was not touched
+        assertEquals(URL + "elsewhere", backend.resolveURL(PREFIX + "/go-PPN1-0"));
+    }
+
+    @Test
+    public void testInsertedPageDoesNotTakeTheHandleOfAnotherPage() throws Exception {
+        EpicRestBackend backend = createBackend("order", "always", PASSWORD);
+        Element page = new Element("physical/11", "PHYS_0012", 12, "page");
+        assertEquals(PREFIX + "/go-PPN2-12", backend.makeURLHandleForObject("PPN2", "go-", null, page));
+        String values = handles.get(PREFIX + "/go-PPN2-12");
+
+        // a page is inserted before it, the new page now has the order 12 and the next run registers it
+        Element insertedPage = new Element("physical/11", "PHYS_0013", 12, "page");
+        try {
+            backend.makeURLHandleForObject("PPN2", "go-", null, insertedPage);
+            fail("The handle of the other page was taken");
+        } catch (HandleException e) {
+            assertTrue(e.getMessage().contains(PREFIX + "/go-PPN2-12"));
+        }
+        assertEquals(1, handles.size());
+        assertEquals(values, handles.get(PREFIX + "/go-PPN2-12"));
+    }
+
+    @Test
+    public void testNamedHandleUsesTheSeparator() throws Exception {
+        EpicRestBackend backend = createBackend("order", "always", PASSWORD, "_");
+        Element page = new Element("physical/11", "PHYS_0012", 12, "page");
+        assertEquals(PREFIX + "/go_PPN2_12", backend.makeURLHandleForObject("PPN2", "go_", null, page));
+    }
+
+    @Test
+    public void testJournaledHandleIsTakenOver() throws Exception {
+        EpicRestBackend backend = createBackend("order", "always", PASSWORD);
+        // an earlier run reserved the handle in its journal and created it, but stopped before it recorded it
+        register(PREFIX + "/go-PPN2-12", URL + PREFIX + "/go-PPN2-12");
+        Element page = new Element("physical/11", "PHYS_0012", 12, "page", PREFIX + "/go-PPN2-12");
+
+        assertEquals(PREFIX + "/go-PPN2-12", backend.makeURLHandleForObject("PPN2", "go-", null, page));
+        assertEquals(1, handles.size());
+    }
+
+    @Test
+    public void testCollisionIsNotTakenOverByTheNextRun() throws Exception {
+        EpicRestBackend backend = createBackend("order", "always", PASSWORD);
+        register(PREFIX + "/go-PPN2-12", URL + PREFIX + "/go-PPN2-12");
+        String values = handles.get(PREFIX + "/go-PPN2-12");
+        Path metsFile = Files.createTempFile("meta", ".xml");
+        Path journalFile = metsFile.resolveSibling(metsFile.getFileName() + ".journal");
+        try {
+            // the handle belongs to another page, both runs must fail
+            for (int run = 0; run < 2; run++) {
+                try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+                    journal.createNamed("physical/11", PREFIX + "/go-PPN2-12", reservedHandle -> backend.makeURLHandleForObject("PPN2", "go-",
+                            null, new Element("physical/11", "PHYS_0013", 12, "page", reservedHandle)));
+                    fail("The handle of the other page was taken in run " + run);
+                } catch (HandleException e) {
+                    assertTrue(e.getMessage().contains(PREFIX + "/go-PPN2-12"));
+                }
+            }
+            assertEquals(values, handles.get(PREFIX + "/go-PPN2-12"));
+        } finally {
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(metsFile);
+        }
+    }
+
+    @Test
+    public void testUpdateChangedHandlesOnly() throws Exception {
+        EpicRestBackend backend = createBackend("probe", "changed", PASSWORD);
+        register(PREFIX + "/go-PPN3", URL + PREFIX + "/go-PPN3");
+        register(PREFIX + "/go-PPN3-0", URL + "elsewhere");
+
+        assertEquals(UpdateResult.UNCHANGED, backend.updateURLHandleForObject(PREFIX + "/go-PPN3", "go-", null));
+        assertEquals(UpdateResult.UPDATED, backend.updateURLHandleForObject(PREFIX + "/go-PPN3-0", "go-", null));
+        assertEquals(URL + PREFIX + "/go-PPN3-0", backend.resolveURL(PREFIX + "/go-PPN3-0"));
+        // a handle that does not exist is not created by an update
+        assertEquals(UpdateResult.FAILED, backend.updateURLHandleForObject(PREFIX + "/go-PPN3-1", "go-", null));
+        assertFalse(handles.containsKey(PREFIX + "/go-PPN3-1"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        EpicRestBackend backend = createBackend("probe", "always", PASSWORD);
+        register(PREFIX + "/go-PPN4", URL + PREFIX + "/go-PPN4");
+
+        assertTrue(backend.remove(PREFIX + "/go-PPN4"));
+        assertFalse(backend.remove(PREFIX + "/go-PPN4"));
+        assertNull(backend.resolveURL(PREFIX + "/go-PPN4"));
+    }
+
+    @Test(expected = HandleException.class)
+    public void testWrongPassword() throws Exception {
+        createBackend("probe", "always", "wrong").makeURLHandleForObject("PPN5", "go-", null, null);
+    }
+
+    @Test
+    public void testWrongPasswordDoesNotThrottle() throws Exception {
+        EpicRestBackend backend = createBackend("probe", "always", "wrong");
+        int limit = AdaptiveRequestLimiter.forServer(PREFIX, 1, 64, 0).getLimit();
+        try {
+            backend.makeURLHandleForObject("PPN5", "go-", null, null);
+            fail("The wrong password was accepted");
+        } catch (HandleException e) {
+            // refused credentials are no failure of the server
+            assertEquals(limit, AdaptiveRequestLimiter.forServer(PREFIX, 1, 64, 0).getLimit());
+        }
+    }
+
+    @Test
+    public void testReadURL() throws Exception {
+        assertEquals("https://viewer.example.org/a\"b", EpicRestBackend.readURL(new StringReader(
+                "[ {\"type\" : \"EMAIL\", \"parsed_data\" : \"a@example.org\", \"refs\" : [], \"ttl\" : 86400, \"x\" : null},\n"
+                        + "  {\"idx\":1, \"parsed_data\":\"https:\\/\\/viewer.example.org\\/a\\\"b\", \"type\":\"URL\"}")));
+        assertNull(EpicRestBackend.readURL(new StringReader("[]")));
+    }
+}
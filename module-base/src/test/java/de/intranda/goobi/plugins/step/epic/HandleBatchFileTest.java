@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.handle.hdllib.AbstractMessage;
+import net.handle.hdllib.AdminRecord;
+import net.handle.hdllib.CreateHandleRequest;
+import net.handle.hdllib.DeleteHandleRequest;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ModifyValueRequest;
+import net.handle.hdllib.ResolutionRequest;
+import net.handle.hdllib.Util;
+
+public class HandleBatchFileTest {
+
+    private static final String HANDLE = "21.T11998/go-goobi-PPN123-1";
+    private static final String URL = "https://viewer.example.org/" + HANDLE;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("handles", ".batch");
+        Files.delete(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static HandleValue[] createValues() {
+        AdminRecord admin = new AdminRecord();
+        admin.adminId = Util.encodeString("0.NA/21.T11998");
+        admin.adminIdIndex = 300;
+        admin.perms[AdminRecord.ADD_HANDLE] = true;
+        admin.perms[AdminRecord.DELETE_HANDLE] = true;
+        admin.perms[AdminRecord.READ_VALUE] = true;
+        admin.perms[AdminRecord.REMOVE_VALUE] = true;
+        admin.perms[AdminRecord.ADD_VALUE] = true;
+        return new HandleValue[] { new HandleValue(100, Util.encodeString("HS_ADMIN"), Encoder.encodeAdminRecord(admin)),
+                new HandleValue(1, "URL", URL) };
+    }
+
+    @Test
+    public void testFormatOperation() throws Exception {
+        assertEquals("CREATE " + HANDLE + "\n"
+                + "100 HS_ADMIN 86400 1110 ADMIN 300:110001110000:0.NA/21.T11998\n"
+                + "1 URL 86400 1110 UTF8 " + URL + "\n\n", HandleBatchFile.formatOperation("CREATE ", HANDLE, createValues()));
+    }
+
+    @Test
+    public void testProcess() throws Exception {
+        HandleBatchFile batchFile = new HandleBatchFile(file);
+        assertEquals(AbstractMessage.RC_HANDLE_NOT_FOUND, batchFile.process(resolve(HANDLE)).responseCode);
+        assertEquals(AbstractMessage.RC_SUCCESS, batchFile.process(create(HANDLE)).responseCode);
+        assertEquals(AbstractMessage.RC_SUCCESS, batchFile.process(resolve(HANDLE)).responseCode);
+        assertEquals(AbstractMessage.RC_HANDLE_ALREADY_EXISTS, batchFile.process(create(HANDLE)).responseCode);
+        batchFile.process(new ModifyValueRequest(Util.encodeString(HANDLE), new HandleValue(1, "URL", URL + "/new"), null));
+        batchFile.process(new DeleteHandleRequest(Util.encodeString(HANDLE), null));
+        assertEquals(AbstractMessage.RC_HANDLE_NOT_FOUND, batchFile.process(resolve(HANDLE)).responseCode);
+        batchFile.flush();
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertEquals(HandleBatchFile.formatOperation("CREATE ", HANDLE, createValues())
+                + "MODIFY " + HANDLE + "\n1 URL 86400 1110 UTF8 " + URL + "/new\n\n"
+                + "DELETE " + HANDLE + "\n\n", content);
+    }
+
+    @Test
+    public void testReopenSkipsIncompleteOperation() throws Exception {
+        HandleBatchFile batchFile = new HandleBatchFile(file);
+        batchFile.process(create(HANDLE));
+        batchFile.flush();
+        long size = Files.size(file);
+        Files.write(file, ("CREATE 21.T11998/go-goobi-PPN123-2\n100 HS_ADM").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        HandleBatchFile reopened = new HandleBatchFile(file);
+        assertEquals(AbstractMessage.RC_HANDLE_ALREADY_EXISTS, reopened.process(create(HANDLE)).responseCode);
+        assertEquals(AbstractMessage.RC_HANDLE_NOT_FOUND, reopened.process(resolve("21.T11998/go-goobi-PPN123-2")).responseCode);
+        assertEquals(size, Files.size(file));
+    }
+
+    private static CreateHandleRequest create(String handle) {
+        return new CreateHandleRequest(Util.encodeString(handle), createValues(), null);
+    }
+
+    private static ResolutionRequest resolve(String handle) {
+        return new ResolutionRequest(Util.encodeString(handle), null, null, null);
+    }
+}
@@ -0,0 +1,134 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandleJournalTest {
+
+    private Path metsFile;
+    private Path journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        metsFile = Files.createTempFile("meta", ".xml");
+        Files.write(metsFile, "<mets:mets/>".getBytes(StandardCharsets.UTF_8));
+        journalFile = metsFile.resolveSibling(metsFile.getFileName() + ".journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(metsFile);
+        Files.deleteIfExists(journalFile);
+    }
+
+    @Test
+    public void testReplayAfterFailedRun() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            journal.record("physical", "21.T11998/go-goobi-PPN123-1");
+            journal.record("physical/0", "21.T11998/go-goobi-PPN123-2");
+        }
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertEquals("21.T11998/go-goobi-PPN123-1", journal.getHandle("physical"));
+            assertEquals("21.T11998/go-goobi-PPN123-2", journal.getHandle("physical/0"));
+            assertNull(journal.getHandle("physical/1"));
+        }
+    }
+
+    @Test
+    public void testRecordFromInterruptedThread() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            // a worker that is cancelled after it created its handle still records it, and the journal stays usable for the others
+            Thread.currentThread().interrupt();
+            try {
+                journal.record("physical/0", "21.T11998/go-goobi-PPN123-1");
+            } finally {
+                Thread.interrupted();
+            }
+            journal.record("physical/1", "21.T11998/go-goobi-PPN123-2");
+        }
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertEquals("21.T11998/go-goobi-PPN123-1", journal.getHandle("physical/0"));
+            assertEquals("21.T11998/go-goobi-PPN123-2", journal.getHandle("physical/1"));
+        }
+    }
+
+    @Test
+    public void testReservedHandle() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            journal.reserve("physical/0", "21.T11998/go-goobi-PPN123-1");
+            journal.reserve("physical/1", "21.T11998/go-goobi-PPN123-2");
+            journal.record("physical/1", "21.T11998/go-goobi-PPN123-2");
+        }
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            // the first handle may or may not have been created before the run stopped
+            assertNull(journal.getHandle("physical/0"));
+            assertEquals("21.T11998/go-goobi-PPN123-1", journal.getReservedHandle("physical/0"));
+            assertEquals("21.T11998/go-goobi-PPN123-2", journal.getHandle("physical/1"));
+        }
+    }
+
+    @Test
+    public void testIncompleteLineIsIgnored() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            journal.record("physical", "21.T11998/go-goobi-PPN123-1");
+        }
+        Files.write(journalFile, "physical/0\t21.T11998/go-go".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertNull(journal.getHandle("physical/0"));
+            journal.record("physical/1", "21.T11998/go-goobi-PPN123-3");
+        }
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertEquals("21.T11998/go-goobi-PPN123-1", journal.getHandle("physical"));
+            assertNull(journal.getHandle("physical/0"));
+            assertEquals("21.T11998/go-goobi-PPN123-3", journal.getHandle("physical/1"));
+        }
+    }
+
+    @Test
+    public void testJournalOfChangedFileIsDiscarded() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            journal.record("physical", "21.T11998/go-goobi-PPN123-1");
+        }
+        Files.setLastModifiedTime(metsFile, FileTime.fromMillis(Files.getLastModifiedTime(metsFile).toMillis() + 60000));
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertNull(journal.getHandle("physical"));
+        }
+    }
+
+    @Test
+    public void testReleasedReservation() throws Exception {
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            journal.reserve("physical/0", "21.T11998/go-goobi-PPN123-1");
+            journal.release("physical/0", "21.T11998/go-goobi-PPN123-1");
+            assertNull(journal.getReservedHandle("physical/0"));
+        }
+
+        try (HandleJournal journal = HandleJournal.open(journalFile, metsFile)) {
+            assertNull(journal.getReservedHandle("physical/0"));
+        }
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        HandleJournal journal = HandleJournal.open(journalFile, metsFile);
+        journal.record("logical", "21.T11998/go-goobi-PPN123");
+        journal.delete();
+        assertFalse(Files.exists(journalFile));
+    }
+}
@@ -0,0 +1,110 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.handle.hdllib.HandleException;
+
+public class ResolutionCacheTest {
+
+    private ResolutionCache cache = ResolutionCache.getInstance();
+
+    @Before
+    public void setUp() {
+        cache.configure(3, 3600, 3600);
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        cache.configure(100000, 3600, 60);
+        cache.clear();
+    }
+
+    @Test
+    public void testPositiveAndNegativeEntries() throws HandleException {
+        AtomicInteger lookups = new AtomicInteger();
+        assertTrue(cache.isRegistered("21.T11998/a", h -> lookups.incrementAndGet() > 0));
+        assertFalse(cache.isRegistered("21.T11998/b", h -> lookups.incrementAndGet() < 0));
+        assertTrue(cache.isRegistered("21.T11998/a", h -> lookups.incrementAndGet() < 0));
+        assertFalse(cache.isRegistered("21.T11998/b", h -> lookups.incrementAndGet() > 0));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws HandleException {
+        cache.put("21.T11998/a", true);
+        cache.put("21.T11998/b", true);
+        cache.put("21.T11998/c", true);
+        cache.isRegistered("21.T11998/a", h -> false);
+        cache.put("21.T11998/d", true);
+        assertEquals(3, cache.size());
+        // b was used least recently and has been removed
+        assertFalse(cache.isRegistered("21.T11998/b", h -> false));
+        assertTrue(cache.isRegistered("21.T11998/a", h -> false));
+    }
+
+    @Test
+    public void testExpiredEntriesAreLookedUpAgain() throws HandleException {
+        cache.configure(3, 0, 0);
+        cache.put("21.T11998/a", true);
+        assertFalse(cache.isRegistered("21.T11998/a", h -> false));
+    }
+
+    @Test
+    public void testConcurrentLookupsAreMerged() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FutureTask<Boolean> first = new FutureTask<>(() -> cache.isRegistered("21.T11998/slow", h -> {
+            lookups.incrementAndGet();
+            started.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }));
+        new Thread(first).start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FutureTask<Boolean> second = new FutureTask<>(() -> cache.isRegistered("21.T11998/slow", h -> lookups.incrementAndGet() > 0));
+        Thread secondThread = new Thread(second);
+        secondThread.start();
+        // the second lookup waits for the answer of the first one
+        while (secondThread.getState() != Thread.State.WAITING && !second.isDone()) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testLookupOvertakenByPutIsNotCached() throws HandleException {
+        // another thread creates the handle while the lookup is running
+        assertTrue(cache.isRegistered("21.T11998/new", h -> {
+            cache.put(h, true);
+            return false;
+        }));
+        assertTrue(cache.isRegistered("21.T11998/new", h -> false));
+    }
+
+    @Test
+    public void testUnclearAnswerIsNotCached() throws HandleException {
+        assertTrue(cache.isRegistered("21.T11998/error", h -> null));
+        assertFalse(cache.isRegistered("21.T11998/error", h -> false));
+    }
+}
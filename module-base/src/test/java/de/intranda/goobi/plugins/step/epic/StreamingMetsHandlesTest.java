@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.Prefs;
+
+public class StreamingMetsHandlesTest {
+
+    private static final String METS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\" "
+            + "xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+            + "<mets:dmdSec ID=\"DMDLOG_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>"
+            + "<goobi:metadata name=\"TitleDocMain\">Some title</goobi:metadata>"
+            + "<goobi:metadata name=\"CatalogIDDigital\">PPN123</goobi:metadata>"
+            + "<goobi:metadata name=\"_urn\">21.T11998/go-goobi-PPN123</goobi:metadata>"
+            + "</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>\n"
+            + "<mets:dmdSec ID=\"DMDPHYS_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods>"
+            + "<mods:titleInfo><mods:title>x</mods:title></mods:titleInfo>"
+            + "</mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>\n"
+            + "<mets:amdSec ID=\"AMD\"/>\n"
+            + "<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" DMDID=\"DMDLOG_0000\" TYPE=\"Monograph\">"
+            + "<mets:div ID=\"LOG_0001\" TYPE=\"Chapter\"/></mets:div></mets:structMap>\n"
+            + "<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0000\" DMDID=\"DMDPHYS_0000\" TYPE=\"BoundBook\">"
+            + "<mets:div ID=\"PHYS_0001\" ORDER=\"1\" TYPE=\"page\"/><mets:div ID=\"PHYS_0002\" ORDER=\"2\" TYPE=\"page\"/>"
+            + "</mets:div></mets:structMap>\n"
+            + "</mets:mets>\n";
+
+    private Path metsFile;
+
+    @Before
+    public void setUp() throws Exception {
+        metsFile = Files.createTempFile("meta", ".xml");
+        Files.write(metsFile, METS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(metsFile);
+    }
+
+    @Test
+    public void testReadTargets() throws Exception {
+        StreamingMetsHandles mets = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+        assertEquals("PPN123", mets.getIdentifier());
+        assertEquals("21.T11998/go-goobi-PPN123", mets.getLogicalTarget().getExistingHandle());
+        assertNull(mets.getPhysicalTarget().getExistingHandle());
+        assertEquals(2, mets.getPages().size());
+        assertNull(mets.getPages().get(0).getExistingHandle());
+        assertEquals("logical", mets.getLogicalTarget().getPath());
+        assertEquals("physical", mets.getPhysicalTarget().getPath());
+        assertEquals("physical/1", mets.getPages().get(1).getPath());
+    }
+
+    @Test
+    public void testNestedDivsAreNamedByTheirPositionInTheTree() throws Exception {
+        Files.write(metsFile, METS.replace("<mets:div ID=\"PHYS_0001\" ORDER=\"1\" TYPE=\"page\"/>",
+                "<mets:div ID=\"PHYS_0001\" ORDER=\"1\" TYPE=\"page\"><mets:div ID=\"PHYS_0003\" TYPE=\"area\"/></mets:div>")
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingMetsHandles mets = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+        assertEquals(3, mets.getPages().size());
+        assertEquals("physical/0", mets.getPages().get(0).getPath());
+        assertEquals("PHYS_0003", mets.getPages().get(1).getDivId());
+        assertEquals("physical/0/0", mets.getPages().get(1).getPath());
+        assertEquals("physical/1", mets.getPages().get(2).getPath());
+    }
+
+    @Test
+    public void testUnchangedHandlesAreNotWritten() throws Exception {
+        StreamingMetsHandles mets = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+        mets.getLogicalTarget().setHandle(mets.getLogicalTarget().getExistingHandle());
+        assertFalse(mets.write(0));
+        assertEquals(METS, new String(Files.readAllBytes(metsFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteHandles() throws Exception {
+        StreamingMetsHandles mets = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+        mets.getLogicalTarget().setHandle("21.T11998/go-goobi-PPN123-1");
+        mets.getPhysicalTarget().setHandle("21.T11998/go-goobi-PPN123-2");
+        mets.getPages().get(0).setHandle("21.T11998/go-goobi-PPN123-3");
+        mets.getPages().get(1).setHandle("21.T11998/go-goobi-PPN123-4");
+        assertTrue(mets.write(0));
+
+        // the written file is read back with the same handles
+        StreamingMetsHandles written = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+        assertEquals("PPN123", written.getIdentifier());
+        assertEquals("21.T11998/go-goobi-PPN123-1", written.getLogicalTarget().getExistingHandle());
+        assertEquals("21.T11998/go-goobi-PPN123-2", written.getPhysicalTarget().getExistingHandle());
+        assertEquals("21.T11998/go-goobi-PPN123-3", written.getPages().get(0).getExistingHandle());
+        assertEquals("21.T11998/go-goobi-PPN123-4", written.getPages().get(1).getExistingHandle());
+
+        String xml = new String(Files.readAllBytes(metsFile), StandardCharsets.UTF_8);
+        // other metadata is kept, the old handle is gone
+        assertTrue(xml.contains("<goobi:metadata name=\"TitleDocMain\">Some title</goobi:metadata>"));
+        assertFalse(xml.contains(">21.T11998/go-goobi-PPN123<"));
+        // new dmdSecs are placed before the amdSec and referenced from the pages
+        assertTrue(xml.indexOf("ID=\"DMDPHYS_0001\"") < xml.indexOf("<mets:amdSec"));
+        assertTrue(xml.contains("DMDID=\"DMDPHYS_0001\""));
+        assertTrue(xml.contains("DMDID=\"DMDPHYS_0002\""));
+    }
+
+    @Test
+    public void testBackupsAreRotated() throws Exception {
+        Path backup1 = metsFile.resolveSibling(metsFile.getFileName() + ".1");
+        Path backup2 = metsFile.resolveSibling(metsFile.getFileName() + ".2");
+        try {
+            Files.write(backup1, "older".getBytes(StandardCharsets.UTF_8));
+            StreamingMetsHandles mets = StreamingMetsHandles.read(metsFile, new Prefs(), "_urn");
+            mets.getLogicalTarget().setHandle("21.T11998/go-goobi-PPN123-1");
+            assertTrue(mets.write(2));
+
+            assertEquals(METS, new String(Files.readAllBytes(backup1), StandardCharsets.UTF_8));
+            assertEquals("older", new String(Files.readAllBytes(backup2), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(backup1);
+            Files.deleteIfExists(backup2);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.handle.hdllib.HandleException;
+
+public class SuffixSearchStrategyTest {
+
+    private static final String STEM = "21.T11998/go-goobi-1296243265";
+
+    /**
+     * Stands in for the handle server: knows a fixed set of registered handles and counts the resolutions.
+     */
+    private static class StubResolver {
+        private final Set<String> registered = new HashSet<>();
+        private int resolutions;
+
+        StubResolver(int existingSuffixes) {
+            for (int suffix = -1; suffix < existingSuffixes - 1; suffix++) {
+                registered.add(handle(suffix));
+            }
+        }
+
+        boolean isRegistered(int suffix) {
+            resolutions++;
+            return registered.contains(handle(suffix));
+        }
+
+        private static String handle(int suffix) {
+            return suffix < 0 ? STEM : STEM + "-" + suffix;
+        }
+    }
+
+    private void assertFirstFree(SuffixSearchStrategy strategy, int existingSuffixes) throws HandleException {
+        StubResolver resolver = new StubResolver(existingSuffixes);
+        int free = strategy.findFirstFree(-1, resolver::isRegistered, 5000);
+        assertEquals(existingSuffixes - 1, free);
+    }
+
+    @Test
+    public void testLinear() throws HandleException {
+        assertFirstFree(SuffixSearchStrategy.LINEAR, 0);
+        assertFirstFree(SuffixSearchStrategy.LINEAR, 1);
+        assertFirstFree(SuffixSearchStrategy.LINEAR, 100);
+        assertFirstFree(SuffixSearchStrategy.LINEAR, 5000);
+    }
+
+    @Test
+    public void testGalloping() throws HandleException {
+        assertFirstFree(SuffixSearchStrategy.GALLOPING, 0);
+        assertFirstFree(SuffixSearchStrategy.GALLOPING, 1);
+        assertFirstFree(SuffixSearchStrategy.GALLOPING, 100);
+        assertFirstFree(SuffixSearchStrategy.GALLOPING, 5000);
+    }
+
+    @Test
+    public void testGallopingNeedsLogarithmicResolutions() throws HandleException {
+        StubResolver resolver = new StubResolver(5000);
+        SuffixSearchStrategy.GALLOPING.findFirstFree(-1, resolver::isRegistered, 5000);
+        assertTrue("too many resolutions: " + resolver.resolutions, resolver.resolutions <= 30);
+    }
+
+    @Test
+    public void testStartAfterHighWaterMark() throws HandleException {
+        StubResolver resolver = new StubResolver(100);
+        assertEquals(99, SuffixSearchStrategy.GALLOPING.findFirstFree(90, resolver::isRegistered, 5000));
+        assertEquals(99, SuffixSearchStrategy.LINEAR.findFirstFree(90, resolver::isRegistered, 5000));
+    }
+
+    @Test(expected = HandleException.class)
+    public void testRegistryAlwaysRegistered() throws HandleException {
+        SuffixSearchStrategy.GALLOPING.findFirstFree(-1, suffix -> true, 5000);
+    }
+
+    @Test
+    public void testGetByName() {
+        assertEquals(SuffixSearchStrategy.GALLOPING, SuffixSearchStrategy.getByName("galloping"));
+        assertEquals(SuffixSearchStrategy.LINEAR, SuffixSearchStrategy.getByName(""));
+        assertEquals(SuffixSearchStrategy.LINEAR, SuffixSearchStrategy.getByName("unknown"));
+    }
+}
@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ugh.dl.DocStruct;
+
+/**
+ * Plugin, handle client and simulated handle server shared by the benchmarks, and synthetic books with the configured number of pages. The
+ * simulator answers without delay, so the benchmarks only measure the work done by the plugin.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkEnvironment {
+
+    // object ID of the book whose pages are registered already
+    static final String REGISTERED_ID = "PPN000000001";
+    // object ID of the books whose pages get new handles
+    static final String NEW_ID = "PPN000000002";
+
+    @Param({ "10", "1000", "20000" })
+    int pages;
+
+    // hand every request to another thread, as the client did for requests with a deadline before it relied on the TCP timeout
+    @Param({ "false", "true" })
+    boolean threadHop;
+
+    SimulatedPlugin simulation;
+    HandleClient client;
+    EpicPidStepPlugin plugin;
+    DocStruct registeredBook;
+    private ExecutorService threadHopExecutor;
+
+    @Setup
+    public void setUp() throws Exception {
+        simulation = new SimulatedPlugin(Collections.emptyMap());
+        client = simulation.client;
+        plugin = simulation.plugin;
+        if (threadHop) {
+            threadHopExecutor = Executors.newCachedThreadPool();
+            simulation.simulator.setThreadHop(threadHopExecutor);
+        }
+        registeredBook = createBook(REGISTERED_ID, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (threadHopExecutor != null) {
+            threadHopExecutor.shutdownNow();
+        }
+        simulation.close();
+    }
+
+    DocStruct createBook(String id, boolean registered) throws Exception {
+        return simulation.createBook(id, pages, registered);
+    }
+
+    /**
+     * Forget the handles minted for NEW_ID, so that every invocation mints the same handles.
+     */
+    void resetNewHandles() {
+        simulation.simulator.removeHandlesStartingWith(simulation.getStem(NEW_ID));
+        client.resetSuffix();
+        ResolutionCache.getInstance().clear();
+    }
+}
@@ -0,0 +1,19 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that the allocation rate is reported next to the throughput. Accepts the usual JMH command line
+ * options, e.g. a regular expression selecting the benchmarks or "-p pages=20000".
+ */
+public class EpicPidBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,145 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import ugh.dl.DocStruct;
+
+/**
+ * Load generator registering the handles of many synthetic books against the HandleServerSimulator. Reports handles per second and latency
+ * percentiles.
+ *
+ * <pre>
+ * java -cp benchmarks.jar de.intranda.goobi.plugins.step.epic.HandleLoadGenerator --books=200 --pages=500 --workers=4 \
+ *     --parallelRequests=8 --latency=lognormal:20:0.5 --errors=SERVER_TOO_BUSY:0.01 --seed=3 --registered=false --sites=2
+ * </pre>
+ *
+ * With more than one site, --hedgeResolution=true sends slow resolutions to a second site.
+ *
+ * All other options of the form --key=value are set in the plugin configuration, e.g. --optimisticMinting=true or --suffixSearch=galloping.
+ */
+public class HandleLoadGenerator {
+
+    private final SimulatedPlugin simulation;
+    private final int books;
+    private final int pages;
+    private final int workers;
+    private final int parallelRequests;
+    private final int seed;
+    private final boolean registered;
+
+    private final RegistrationSummary summary = new RegistrationSummary();
+    private final LatencyHistogram bookTimes;
+
+    public HandleLoadGenerator(SimulatedPlugin simulation, int books, int pages, int workers, int parallelRequests, int seed, boolean registered) {
+        this.simulation = simulation;
+        this.books = books;
+        this.pages = pages;
+        this.workers = workers;
+        this.parallelRequests = parallelRequests;
+        this.seed = seed;
+        this.registered = registered;
+        this.bookTimes = new LatencyHistogram(Math.max(1, books));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Options must look like --key=value: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int books = Integer.parseInt(take(options, "books", "100"));
+        int pages = Integer.parseInt(take(options, "pages", "100"));
+        int workers = Integer.parseInt(take(options, "workers", "4"));
+        int parallelRequests = Integer.parseInt(take(options, "parallelRequests", "1"));
+        int seed = Integer.parseInt(take(options, "seed", "0"));
+        boolean registered = Boolean.parseBoolean(take(options, "registered", "false"));
+        String latency = take(options, "latency", "lognormal:20:0.5");
+        String errors = take(options, "errors", "");
+        int sites = Integer.parseInt(take(options, "sites", "1"));
+
+        try (SimulatedPlugin simulation = new SimulatedPlugin(options)) {
+            simulation.simulator.setLatency(LatencyDistribution.parse(latency));
+            simulation.simulator.setSites(simulation.config.getString("base"), sites);
+            for (String error : errors.split(",")) {
+                if (!error.isBlank()) {
+                    String[] parts = error.split(":");
+                    simulation.simulator.setErrorRate(HandleServerSimulator.getResponseCode(parts[0]), Double.parseDouble(parts[1]));
+                }
+            }
+            new HandleLoadGenerator(simulation, books, pages, workers, parallelRequests, seed, registered).run();
+        }
+    }
+
+    private static String take(Map<String, String> options, String key, String defaultValue) {
+        String value = options.remove(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void run() throws Exception {
+        List<String> ids = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) {
+            String id = String.format("LOAD%08d", i);
+            ids.add(id);
+            if (seed > 0) {
+                // existing handles of earlier registrations, which the suffix minting has to skip
+                simulation.simulator.seed(simulation.getStem(id), seed, simulation.config.getString("url"));
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Boolean> results;
+        try (HandleTaskExecutor executor = new HandleTaskExecutor(workers)) {
+            List<Future<Boolean>> futures = new ArrayList<>(books);
+            for (String id : ids) {
+                futures.add(executor.submit(() -> registerBook(id)));
+            }
+            results = executor.awaitEach(futures);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long failedBooks = results.stream().filter(result -> result == null).count();
+        long handles = summary.getCreated() + summary.getUpdated() + summary.getUnchanged() + summary.getSkipped();
+        System.out.println(String.format("%d books with %d pages in %.1f s, %d books failed", books, pages, seconds, failedBooks));
+        System.out.println(String.format("Handles: %s, %.1f handles/s", summary, handles / seconds));
+        System.out.println("Book time: " + formatPercentiles(bookTimes));
+        System.out.println(String.format("Requests: %d, %.1f requests/s, %s", simulation.simulator.getRequestCount(),
+                simulation.simulator.getRequestCount() / seconds, simulation.simulator.getResponseCodeCounts()));
+        System.out.println("Request time at the server: " + formatPercentiles(simulation.simulator.getServiceTimes()));
+        if (!simulation.simulator.getSiteRequestCounts().isEmpty()) {
+            System.out.println("Requests per site: " + simulation.simulator.getSiteRequestCounts());
+        }
+    }
+
+    private boolean registerBook(String id) throws Exception {
+        DocStruct book = simulation.createBook(id, pages, registered);
+        EpicPidStepPlugin plugin = simulation.plugin;
+        long start = System.nanoTime();
+        if (parallelRequests > 1) {
+            try (HandleTaskExecutor executor = new HandleTaskExecutor(parallelRequests)) {
+                List<DocStruct> docstructs = plugin.collectDocStructs(book, true);
+                plugin.writeHandles(docstructs, executor.awaitAll(plugin.submitHandles(docstructs, id, simulation.client, executor, summary)));
+            }
+        } else {
+            plugin.addHandle(book, id, simulation.client, true, summary);
+        }
+        bookTimes.record(System.nanoTime() - start);
+        return true;
+    }
+
+    private static String formatPercentiles(LatencyHistogram histogram) {
+        return String.format("p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms", toMillis(histogram.getPercentile(0.5)),
+                toMillis(histogram.getPercentile(0.95)), toMillis(histogram.getPercentile(0.99)), toMillis(histogram.getPercentile(1)));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
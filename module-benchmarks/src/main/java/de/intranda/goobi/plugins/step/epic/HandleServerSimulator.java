@@ -0,0 +1,301 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.handle.hdllib.AbstractMessage;
+import net.handle.hdllib.AbstractRequest;
+import net.handle.hdllib.AbstractResponse;
+import net.handle.hdllib.Attribute;
+import net.handle.hdllib.CreateHandleRequest;
+import net.handle.hdllib.CreateHandleResponse;
+import net.handle.hdllib.Encoder;
+import net.handle.hdllib.ErrorResponse;
+import net.handle.hdllib.GenericResponse;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.HandleResolver;
+import net.handle.hdllib.HandleValue;
+import net.handle.hdllib.ModifyValueRequest;
+import net.handle.hdllib.ResolutionResponse;
+import net.handle.hdllib.ServerInfo;
+import net.handle.hdllib.SiteInfo;
+import net.handle.hdllib.Util;
+
+/**
+ * Stand-in for the handle server, keeping the handles in memory. It answers the resolution, create, modify and delete requests sent by
+ * HandleClient, optionally after a simulated response time and with injected errors, so that the plugin can be benchmarked and load-tested
+ * without the real ePIC service.
+ *
+ * The sites of a prefix are answered from its prefix handle "0.NA/prefix" like at the global handle registry, and all sites share the same
+ * handles.
+ */
+public class HandleServerSimulator extends HandleResolver {
+
+    private static final int URL_RECORD_INDEX = 1;
+
+    private final Map<String, HandleValue[]> handles = new ConcurrentHashMap<>();
+    private final Map<Integer, LatencyDistribution> latencies = new ConcurrentHashMap<>();
+    // response code -> probability, in the order they were added
+    private final Map<Integer, Double> errorRates = new LinkedHashMap<>();
+    private final ReentrantLock errorRatesLock = new ReentrantLock();
+    private volatile LatencyDistribution defaultLatency = LatencyDistribution.none();
+    private volatile ExecutorService threadHop;
+
+    private final LongAdder requests = new LongAdder();
+    // serial number of the site -> requests sent to it
+    private final Map<Integer, LongAdder> siteRequests = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> responseCodes = new ConcurrentHashMap<>();
+    private final LatencyHistogram serviceTimes = new LatencyHistogram(100000);
+
+    /**
+     * Response time of all requests without a specific distribution.
+     */
+    public void setLatency(LatencyDistribution latency) {
+        this.defaultLatency = latency;
+    }
+
+    /**
+     * Response time of one kind of request, e.g. AbstractMessage.OC_CREATE_HANDLE.
+     */
+    public void setLatency(int opCode, LatencyDistribution latency) {
+        latencies.put(opCode, latency);
+    }
+
+    /**
+     * Answer the given share of all requests with the response code instead of processing them, e.g. AbstractMessage.RC_SERVER_TOO_BUSY.
+     */
+    public void setErrorRate(int responseCode, double probability) {
+        errorRatesLock.lock();
+        try {
+            errorRates.put(responseCode, probability);
+        } finally {
+            errorRatesLock.unlock();
+        }
+    }
+
+    /**
+     * Answer every request on a thread of the pool while the calling thread waits for it, null to answer on the calling thread. This adds the
+     * hand-off HandleClient made for every request with a deadline, before it left the deadline to the TCP timeout, so both can be compared.
+     */
+    public void setThreadHop(ExecutorService executor) {
+        this.threadHop = executor;
+    }
+
+    /**
+     * Register a handle with the given URL.
+     */
+    public void register(String handle, String url) {
+        handles.put(handle, new HandleValue[] { new HandleValue(URL_RECORD_INDEX, "URL", url) });
+    }
+
+    /**
+     * Let the given number of sites serve the prefix, the first one being the primary site. They are found by resolving "0.NA/prefix".
+     */
+    public void setSites(String prefix, int count) throws HandleException {
+        HandleValue[] values = new HandleValue[count];
+        for (int i = 0; i < count; i++) {
+            SiteInfo site = new SiteInfo();
+            site.serialNumber = i;
+            site.isPrimary = i == 0;
+            site.attributes = new Attribute[0];
+            site.servers = new ServerInfo[0];
+            values[i] = new HandleValue(i + 1, Util.encodeString("HS_SITE"), Encoder.encodeSiteInfoRecord(site));
+        }
+        handles.put("0.NA/" + prefix, values);
+    }
+
+    /**
+     * Register the given number of handles for the stem, in the order in which the client mints them: the stem itself, then "stem-0",
+     * "stem-1" and so on.
+     */
+    public void seed(String stem, int count, String urlPrefix) {
+        for (int i = 0; i < count; i++) {
+            String handle = i == 0 ? stem : stem + "-" + (i - 1);
+            register(handle, urlPrefix + handle);
+        }
+    }
+
+    /**
+     * Forget all handles starting with the given string.
+     */
+    public void removeHandlesStartingWith(String stem) {
+        handles.keySet().removeIf(handle -> handle.startsWith(stem));
+    }
+
+    @Override
+    public AbstractResponse processRequest(AbstractRequest request) throws HandleException {
+        ExecutorService executor = threadHop;
+        if (executor == null) {
+            return process(request);
+        }
+        try {
+            return executor.submit(() -> process(request)).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof HandleException ? (HandleException) e.getCause()
+                    : new HandleException(HandleException.INTERNAL_ERROR, e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted");
+        }
+    }
+
+    private AbstractResponse process(AbstractRequest request) throws HandleException {
+        long start = System.nanoTime();
+        requests.increment();
+        AbstractResponse response;
+        try {
+            delay(latencies.getOrDefault(request.opCode, defaultLatency).sample());
+            Integer error = drawError();
+            response = error != null ? new ErrorResponse(request, error, null) : answer(request);
+        } finally {
+            serviceTimes.record(System.nanoTime() - start);
+        }
+        responseCodes.computeIfAbsent(response.responseCode, c -> new LongAdder()).increment();
+        return response;
+    }
+
+    @Override
+    public AbstractResponse sendRequestToSite(AbstractRequest request, SiteInfo site) throws HandleException {
+        siteRequests.computeIfAbsent(site.serialNumber, serialNumber -> new LongAdder()).increment();
+        return processRequest(request);
+    }
+
+    private AbstractResponse answer(AbstractRequest request) throws HandleException {
+        String handle = Util.decodeString(request.handle);
+        switch (request.opCode) {
+            case AbstractMessage.OC_RESOLUTION:
+                HandleValue[] values = handles.get(handle);
+                if (values == null) {
+                    return new ErrorResponse(request, AbstractMessage.RC_HANDLE_NOT_FOUND, null);
+                }
+                return new ResolutionResponse(request, request.handle, encode(values));
+            case AbstractMessage.OC_CREATE_HANDLE:
+                if (handles.putIfAbsent(handle, ((CreateHandleRequest) request).values) != null) {
+                    return new ErrorResponse(request, AbstractMessage.RC_HANDLE_ALREADY_EXISTS, null);
+                }
+                return new CreateHandleResponse(request, request.handle);
+            case AbstractMessage.OC_MODIFY_VALUE:
+                if (handles.computeIfPresent(handle, (h, old) -> modify(old, ((ModifyValueRequest) request).values)) == null) {
+                    return new ErrorResponse(request, AbstractMessage.RC_HANDLE_NOT_FOUND, null);
+                }
+                return new GenericResponse(request, AbstractMessage.RC_SUCCESS);
+            case AbstractMessage.OC_DELETE_HANDLE:
+                if (handles.remove(handle) == null) {
+                    return new ErrorResponse(request, AbstractMessage.RC_HANDLE_NOT_FOUND, null);
+                }
+                return new GenericResponse(request, AbstractMessage.RC_SUCCESS);
+            default:
+                return new ErrorResponse(request, AbstractMessage.RC_OPERATION_NOT_SUPPORTED, null);
+        }
+    }
+
+    private Integer drawError() {
+        errorRatesLock.lock();
+        try {
+            if (errorRates.isEmpty()) {
+                return null;
+            }
+            double draw = ThreadLocalRandom.current().nextDouble();
+            for (Map.Entry<Integer, Double> entry : errorRates.entrySet()) {
+                draw -= entry.getValue();
+                if (draw < 0) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        } finally {
+            errorRatesLock.unlock();
+        }
+    }
+
+    private static void delay(long nanos) throws HandleException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HandleException(HandleException.INTERNAL_ERROR, "Interrupted");
+        }
+    }
+
+    private static HandleValue[] modify(HandleValue[] values, HandleValue[] changes) {
+        HandleValue[] result = values.clone();
+        for (HandleValue change : changes) {
+            for (int i = 0; i < result.length; i++) {
+                if (result[i].getIndex() == change.getIndex()) {
+                    result[i] = change;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[][] encode(HandleValue[] values) {
+        byte[][] encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = new byte[Encoder.calcStorageSize(values[i])];
+            Encoder.encodeHandleValue(encoded[i], 0, values[i]);
+        }
+        return encoded;
+    }
+
+    /**
+     * The value of a response code constant of AbstractMessage, e.g. 'SERVER_TOO_BUSY' or 'RC_SERVER_TOO_BUSY'. Numbers are accepted as well.
+     */
+    public static int getResponseCode(String name) {
+        if (name.matches("\\d+")) {
+            return Integer.parseInt(name);
+        }
+        String field = name.toUpperCase().startsWith("RC_") ? name.toUpperCase() : "RC_" + name.toUpperCase();
+        try {
+            Field constant = AbstractMessage.class.getField(field);
+            return constant.getInt(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown response code: " + name, e);
+        }
+    }
+
+    public int getHandleCount() {
+        return handles.size();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * Number of answers per response code.
+     */
+    public Map<String, Long> getResponseCodeCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        responseCodes.forEach((code, count) -> counts.put(AbstractMessage.getResponseCodeMessage(code), count.sum()));
+        return counts;
+    }
+
+    /**
+     * Number of requests sent to each site, by its serial number. Requests the client leaves to the resolver are not counted.
+     */
+    public Map<Integer, Long> getSiteRequestCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        siteRequests.forEach((site, count) -> counts.put(site, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Time the simulator took to answer the recent requests, including the simulated response time.
+     */
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
+    }
+}
@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution of the simulated response times of the handle server.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * Draw a response time in ns.
+     */
+    long sample();
+
+    static LatencyDistribution none() {
+        return () -> 0;
+    }
+
+    static LatencyDistribution fixed(double millis) {
+        long nanos = toNanos(millis);
+        return () -> nanos;
+    }
+
+    static LatencyDistribution uniform(double minMillis, double maxMillis) {
+        long min = toNanos(minMillis);
+        long max = toNanos(maxMillis);
+        return () -> min + (long) (ThreadLocalRandom.current().nextDouble() * (max - min));
+    }
+
+    static LatencyDistribution exponential(double meanMillis) {
+        double mean = toNanos(meanMillis);
+        return () -> (long) (-mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Log-normal response times as seen from real servers: most answers close to the median, with a long tail that grows with sigma.
+     */
+    static LatencyDistribution logNormal(double medianMillis, double sigma) {
+        double median = toNanos(medianMillis);
+        return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Parse a distribution from a string like "none", "fixed:20", "uniform:5:50", "exponential:20" or "lognormal:20:0.5". Times are in ms.
+     */
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0].toLowerCase()) {
+                case "none":
+                    return none();
+                case "fixed":
+                    return fixed(Double.parseDouble(parts[1]));
+                case "uniform":
+                    return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                case "exponential":
+                    return exponential(Double.parseDouble(parts[1]));
+                case "lognormal":
+                    return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec, e);
+        }
+    }
+
+    private static long toNanos(double millis) {
+        return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.DocStruct;
+
+/**
+ * The per-page path of a step run: registering the handles of a whole book, collecting them and stripping them again. One operation handles one
+ * book with all of its pages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    /**
+     * A book without handles, created anew for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class NewBook {
+        DocStruct book;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkEnvironment env) throws Exception {
+            env.resetNewHandles();
+            book = env.createBook(BenchmarkEnvironment.NEW_ID, false);
+        }
+    }
+
+    /**
+     * A book with handles, created anew for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class RegisteredBook {
+        DocStruct book;
+        HashSet<String> handles;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkEnvironment env) throws Exception {
+            book = env.createBook(BenchmarkEnvironment.REGISTERED_ID, true);
+            handles = new HashSet<>(env.plugin.getHandles(book));
+        }
+    }
+
+    @Benchmark
+    public String addHandleToNewPages(BenchmarkEnvironment env, NewBook newBook) throws Exception {
+        return env.plugin.addHandle(newBook.book, BenchmarkEnvironment.NEW_ID, env.client, true);
+    }
+
+    @Benchmark
+    public String addHandleToRegisteredPages(BenchmarkEnvironment env) throws Exception {
+        return env.plugin.addHandle(env.registeredBook, BenchmarkEnvironment.REGISTERED_ID, env.client, true);
+    }
+
+    @Benchmark
+    public List<String> getHandles(BenchmarkEnvironment env) {
+        return env.plugin.getHandles(env.registeredBook);
+    }
+
+    @Benchmark
+    public DocStruct removeHandlesFromDoc(BenchmarkEnvironment env, RegisteredBook registeredBook) {
+        env.plugin.removeHandlesFromDoc(registeredBook.book, registeredBook.handles);
+        return registeredBook.book;
+    }
+}
@@ -0,0 +1,55 @@
+package de.intranda.goobi.plugins.step.epic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.handle.hdllib.CreateHandleRequest;
+import net.handle.hdllib.HandleException;
+import net.handle.hdllib.ResolutionRequest;
+import net.handle.hdllib.Util;
+
+/**
+ * Building and encoding the requests the client sends for every page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+    private String handle;
+    private String url;
+
+    @Setup
+    public void setUp(BenchmarkEnvironment env) {
+        handle = env.simulation.getStem(BenchmarkEnvironment.NEW_ID) + "-42";
+        url = env.simulation.config.getString("url") + handle;
+    }
+
+    @Benchmark
+    public CreateHandleRequest createRequest(BenchmarkEnvironment env) {
+        return new CreateHandleRequest(Util.encodeString(handle), env.client.createHandleValues(url), env.client.authInfo);
+    }
+
+    @Benchmark
+    public byte[] encodeCreateRequest(BenchmarkEnvironment env) throws HandleException {
+        return createRequest(env).getEncodedMessage();
+    }
+
+    @Benchmark
+    public ResolutionRequest resolutionRequest(BenchmarkEnvironment env) throws HandleException {
+        return env.client.buildResolutionRequest(handle, null);
+    }
+}